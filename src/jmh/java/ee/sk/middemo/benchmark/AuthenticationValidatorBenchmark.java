@@ -0,0 +1,117 @@
+package ee.sk.middemo.benchmark;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.MidAuthentication;
+import ee.sk.mid.MidAuthenticationHashToSign;
+import ee.sk.mid.MidAuthenticationResponseValidator;
+import ee.sk.mid.MidAuthenticationResult;
+import ee.sk.middemo.mock.TestPki;
+import ee.sk.middemo.services.CachingResponseValidator;
+import ee.sk.middemo.services.IssuerIndexedResponseValidator;
+import ee.sk.middemo.services.VerifiedCertificateCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticationValidatorBenchmark {
+
+    // trusted CA certificates besides the one that issued the user certificate
+    @Param({"0", "10"})
+    private int otherTrustedCas;
+
+    @Param({"plain", "issuerIndexed", "cached"})
+    private String validatorType;
+
+    private MidAuthenticationResponseValidator validator;
+
+    private MidAuthentication authentication;
+
+    @Setup
+    public void setUp() throws Exception {
+        TestPki pki = new TestPki();
+
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        for (int i = 0; i < otherTrustedCas; i++) {
+            trustStore.setCertificateEntry("other-ca-" + i, new TestPki("Other test CA " + i).getCaCertificate());
+        }
+        // the plain validator tries the CAs in alias order until one verifies the user certificate
+        trustStore.setCertificateEntry("ca", pki.getCaCertificate());
+
+        switch (validatorType) {
+            case "issuerIndexed":
+                validator = new IssuerIndexedResponseValidator(trustStore);
+                break;
+            case "cached":
+                VerifiedCertificateCache verifiedCertificates = new VerifiedCertificateCache();
+                ReflectionTestUtils.setField(verifiedCertificates, "maximumSize", 1000L);
+                ReflectionTestUtils.setField(verifiedCertificates, "revocationFreshnessSeconds", 3600L);
+                ReflectionTestUtils.setField(verifiedCertificates, "meterRegistry", new SimpleMeterRegistry());
+                verifiedCertificates.initCache();
+                validator = new CachingResponseValidator(new IssuerIndexedResponseValidator(trustStore), verifiedCertificates);
+                break;
+            default:
+                validator = new MidAuthenticationResponseValidator(trustStore);
+        }
+
+        MidAuthenticationHashToSign hashToSign = MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+        authentication = MidAuthentication.newBuilder()
+            .withResult("OK")
+            .withSignatureValueInBase64(pki.signInBase64(hashToSign.getHashType(), hashToSign.getHash()))
+            .withAlgorithmName("SHA256WithRSAEncryption")
+            .withCertificate(pki.getUserCertificate())
+            .withSignedHashInBase64(hashToSign.getHashInBase64())
+            .withHashType(hashToSign.getHashType())
+            .build();
+
+        MidAuthenticationResult result = validator.validate(authentication);
+        if (!result.isValid()) {
+            throw new IllegalStateException("Benchmark authentication does not validate: " + result.getErrors());
+        }
+    }
+
+    @Benchmark
+    public MidAuthenticationResult validate() {
+        return validator.validate(authentication);
+    }
+}
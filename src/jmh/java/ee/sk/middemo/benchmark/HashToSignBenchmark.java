@@ -0,0 +1,82 @@
+package ee.sk.middemo.benchmark;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.MidAuthenticationHashToSign;
+import ee.sk.mid.MidHashToSign;
+import ee.sk.mid.MidHashType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashToSignBenchmark {
+
+    @Param({"SHA256", "SHA384", "SHA512"})
+    private MidHashType hashType;
+
+    private byte[] dataToSign;
+
+    @Setup
+    public void setUp() {
+        // roughly the size of the XAdES SignedInfo that digidoc4j hands over for signing
+        dataToSign = new byte[1024];
+        new Random(42).nextBytes(dataToSign);
+    }
+
+    @Benchmark
+    public String hashToSignAndVerificationCode() {
+        return MidHashToSign.newBuilder()
+            .withDataToHash(dataToSign)
+            .withHashType(hashType)
+            .build()
+            .calculateVerificationCode();
+    }
+
+    @Benchmark
+    public String randomAuthenticationHashAndVerificationCode() {
+        return MidAuthenticationHashToSign.generateRandomHashOfType(hashType)
+            .calculateVerificationCode();
+    }
+
+    @Benchmark
+    public MidAuthenticationHashToSign randomAuthenticationHashOfDefaultType() {
+        return MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+    }
+}
@@ -0,0 +1,249 @@
+package ee.sk.middemo.benchmark;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.MidClient;
+import ee.sk.mid.MidDisplayTextFormat;
+import ee.sk.mid.MidLanguage;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import ee.sk.middemo.mock.TestPki;
+import ee.sk.middemo.model.SigningSessionInfo;
+import ee.sk.middemo.model.UserRequest;
+import ee.sk.middemo.services.MidAdmissionControl;
+import ee.sk.middemo.services.MidOperationMetrics;
+import ee.sk.middemo.services.MobileIdSessionStatusService;
+import ee.sk.middemo.services.MobileIdSignatureServiceImpl;
+import ee.sk.middemo.services.UploadSpooler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.digidoc4j.Configuration;
+import org.digidoc4j.SignatureProfile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Container assembly and {@code buildDataToSign} of {@link MobileIdSignatureServiceImpl#sendSignatureRequest}
+ * with the MID REST calls answered by an in-process stub and the certificate lookup delayed by
+ * {@code certificateLatencyMillis}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class SignatureRequestBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    private int fileSize;
+
+    @Param({"true", "false"})
+    private boolean streamUploads;
+
+    // simulated MID getCertificate round trip, overlapped with reading the upload
+    @Param({"0", "100"})
+    private long certificateLatencyMillis;
+
+    private Path spoolDirectory;
+
+    private ThreadPoolTaskExecutor preparationExecutor;
+
+    private MidAdmissionControl admissionControl;
+
+    private MobileIdSignatureServiceImpl signatureService;
+
+    private UserRequest userRequest;
+
+    @Setup
+    public void setUp() throws Exception {
+        TestPki pki = new TestPki();
+
+        spoolDirectory = Files.createTempDirectory("mid-demo-benchmark");
+        UploadSpooler uploadSpooler = new UploadSpooler();
+        ReflectionTestUtils.setField(uploadSpooler, "spoolDirectory", spoolDirectory.toString());
+        uploadSpooler.createSpoolDirectory();
+
+        MidClient client = MidClient.newBuilder()
+            .withRelyingPartyUUID("00000000-0000-0000-0000-000000000000")
+            .withRelyingPartyName("DEMO")
+            .withHostUrl("http://localhost")
+            .withTrustSslContext(SSLContext.getDefault())
+            .withMobileIdConnector(new StubMidConnector())
+            .build();
+
+        admissionControl = new MidAdmissionControl();
+        ReflectionTestUtils.setField(admissionControl, "maxConcurrentSessions", 1);
+        ReflectionTestUtils.setField(admissionControl, "inFlightTtlSeconds", 150L);
+        ReflectionTestUtils.setField(admissionControl, "meterRegistry", new SimpleMeterRegistry());
+        admissionControl.init();
+
+        preparationExecutor = new ThreadPoolTaskExecutor();
+        preparationExecutor.setCorePoolSize(4);
+        preparationExecutor.initialize();
+
+        signatureService = new MobileIdSignatureServiceImpl(request -> {
+            if (certificateLatencyMillis > 0) {
+                try {
+                    Thread.sleep(certificateLatencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return pki.getUserCertificate();
+        });
+        ReflectionTestUtils.setField(signatureService, "midSignDisplayText", "Sign document");
+        ReflectionTestUtils.setField(signatureService, "midSignDisplayTextFormat", MidDisplayTextFormat.GSM7);
+        ReflectionTestUtils.setField(signatureService, "midSignLanguage", MidLanguage.ENG);
+        ReflectionTestUtils.setField(signatureService, "signatureProfile", SignatureProfile.LT);
+        ReflectionTestUtils.setField(signatureService, "streamUploads", streamUploads);
+        ReflectionTestUtils.setField(signatureService, "client", client);
+        ReflectionTestUtils.setField(signatureService, "configuration", new Configuration(Configuration.Mode.TEST));
+        ReflectionTestUtils.setField(signatureService, "uploadSpooler", uploadSpooler);
+        ReflectionTestUtils.setField(signatureService, "metrics", new MidOperationMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(signatureService, "preparationExecutor", preparationExecutor);
+        ReflectionTestUtils.setField(signatureService, "admissionControl", admissionControl);
+        ReflectionTestUtils.setField(signatureService, "sessionStatusService", new PendingSessionStatusService());
+        ReflectionTestUtils.setField(signatureService, "signingSessionTtlSeconds", 600L);
+        signatureService.initFinalSessionStatuses();
+
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+
+        userRequest = new UserRequest();
+        userRequest.setPhoneNumber("+37200000766");
+        userRequest.setNationalIdentityNumber("60001019906");
+        userRequest.setFile(new MockMultipartFile("file", "document.bin", "application/octet-stream", content));
+    }
+
+    @Benchmark
+    public SigningSessionInfo sendSignatureRequest() {
+        return signatureService.sendSignatureRequest(userRequest);
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeSpooledFiles() throws Exception {
+        // the stub answers every request with the same session and never finishes it,
+        // so the next start for the same person would otherwise be rejected
+        admissionControl.finished(StubMidConnector.SESSION_ID);
+
+        // a 100 MB document is spooled on every invocation, so the directory must not grow across an iteration
+        try (DirectoryStream<Path> uploads = Files.newDirectoryStream(spoolDirectory)) {
+            for (Path upload : uploads) {
+                FileSystemUtils.deleteRecursively(upload);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        preparationExecutor.shutdown();
+        FileSystemUtils.deleteRecursively(spoolDirectory);
+    }
+
+    private static class PendingSessionStatusService implements MobileIdSessionStatusService {
+        @Override
+        public CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatus(String sessionId) {
+            return new CompletableFuture<>();
+        }
+
+        @Override
+        public CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatus(String sessionId) {
+            return new CompletableFuture<>();
+        }
+
+        @Override
+        public MidSessionStatus getCompletedAuthenticationSessionStatus(String sessionId) {
+            return null;
+        }
+    }
+
+    private static class StubMidConnector implements MidConnector {
+
+        static final String SESSION_ID = "00000000-0000-0000-0000-000000000000";
+
+        @Override
+        public MidSignatureResponse sign(MidSignatureRequest request) {
+            return new MidSignatureResponse(SESSION_ID);
+        }
+
+        @Override
+        public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setSslTrustContext(SSLContext sslContext) {
+        }
+    }
+}
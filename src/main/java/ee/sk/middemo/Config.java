@@ -22,20 +22,62 @@ package ee.sk.middemo;
  * #L%
  */
 
-import java.io.InputStream;
-import java.security.KeyStore;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
 
 import ee.sk.mid.MidAuthenticationResponseValidator;
 import ee.sk.mid.MidClient;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.MidRestConnector;
 import ee.sk.middemo.model.UserMidSession;
+import ee.sk.middemo.services.CachingResponseValidator;
+import ee.sk.middemo.services.IssuerIndexedResponseValidator;
+import ee.sk.middemo.services.PooledMidHttpClient;
+import ee.sk.middemo.services.ReloadableTrustManager;
+import ee.sk.middemo.services.ResilientMidConnector;
+import ee.sk.middemo.services.SessionTokenCodec;
+import ee.sk.middemo.services.TokenUserMidSession;
+import ee.sk.middemo.services.TrustStoreManager;
+import ee.sk.middemo.services.VerifiedCertificateCache;
+import ee.sk.middemo.services.VirtualThreads;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.digidoc4j.Configuration.Mode;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 @Configuration
+@EnableScheduling
 public class Config {
 
     @Value("${mid.client.relyingPartyUuid}")
@@ -45,7 +87,49 @@ public class Config {
     private String midRelyingPartyName;
 
     @Value("${mid.client.applicationProviderHost}")
-    private String midApplicationProviderHost;
+    private String[] midApplicationProviderHosts;
+
+    @Value("${mid.client.resilience.failureThreshold}")
+    private int midResilienceFailureThreshold;
+
+    @Value("${mid.client.resilience.openMillis}")
+    private long midResilienceOpenMillis;
+
+    @Value("${mid.client.resilience.maxAttempts}")
+    private int midResilienceMaxAttempts;
+
+    @Value("${mid.client.resilience.latencySmoothing}")
+    private double midResilienceLatencySmoothing;
+
+    @Value("${mid.client.resilience.retryBackoffMillis}")
+    private long midResilienceRetryBackoffMillis;
+
+    @Value("${mid.client.http.maxTotal}")
+    private int midHttpMaxTotal;
+
+    @Value("${mid.client.http.maxPerRoute}")
+    private int midHttpMaxPerRoute;
+
+    @Value("${mid.client.http.connectTimeoutMillis}")
+    private int midHttpConnectTimeoutMillis;
+
+    @Value("${mid.client.http.readTimeoutMillis}")
+    private int midHttpReadTimeoutMillis;
+
+    @Value("${mid.client.http.connectionRequestTimeoutMillis}")
+    private int midHttpConnectionRequestTimeoutMillis;
+
+    @Value("${mid.client.http.validateAfterInactivityMillis}")
+    private int midHttpValidateAfterInactivityMillis;
+
+    @Value("${mid.client.http.timeToLiveSeconds}")
+    private long midHttpTimeToLiveSeconds;
+
+    @Value("${mid.client.http.tlsSessionCacheSize}")
+    private int midHttpTlsSessionCacheSize;
+
+    @Value("${mid.client.http.tlsSessionTimeoutSeconds}")
+    private int midHttpTlsSessionTimeoutSeconds;
 
     @Value("${mid.truststore.trusted-server-ssl-certs.filename}")
     private String midTrustedServerSslCertsFilename;
@@ -59,36 +143,247 @@ public class Config {
     @Value("${mid.truststore.trusted-root-certs.password}")
     private String midTrustedRootCertsPassword;
 
-    @Bean
-    public MidClient mobileIdClient() throws Exception {
+    @Value("${digidoc4j.mode}")
+    private Mode digidoc4jMode;
+
+    @Value("${digidoc4j.tsl.cacheExpirationMillis}")
+    private long digidoc4jTslCacheExpirationMillis;
+
+    @Value("${mid.sign.validation.threads}")
+    private int midValidationThreads;
+
+    @Value("${mid.sign.validation.queueCapacity}")
+    private int midValidationQueueCapacity;
+
+    @Value("${mid.sign.batch.parallelism}")
+    private int midBatchParallelism;
 
-        InputStream is = Config.class.getResourceAsStream(midTrustedServerSslCertsFilename);
-        KeyStore trustStore = KeyStore.getInstance("PKCS12");
-        trustStore.load(is, midTrustedServerSslCertsPassword.toCharArray());
+    @Value("${mid.scheduling.threads}")
+    private int midSchedulingThreads;
 
+    @Value("${mid.polling.threads}")
+    private int midPollingThreads;
+
+    @Value("${mid.polling.executor.threads}")
+    private int midPollingExecutorThreads;
+
+    @Value("${mid.polling.executor.queueCapacity}")
+    private int midPollingExecutorQueueCapacity;
+
+    @Value("${mid.session.token.secureCookie}")
+    private boolean midSessionTokenSecureCookie;
+
+    @Value("${mid.polling.longPollingTimeoutSeconds}")
+    private int midLongPollingTimeoutSeconds;
+
+    @Value("${mid.sign.executor.threads}")
+    private int midSigningThreads;
+
+    @Value("${mid.sign.executor.queueCapacity}")
+    private int midSigningQueueCapacity;
+
+    @Value("${mid.auth.executor.threads}")
+    private int midAuthenticationThreads;
+
+    @Value("${mid.auth.executor.queueCapacity}")
+    private int midAuthenticationQueueCapacity;
+
+    @Value("${mid.sign.preparation.threads}")
+    private int midPreparationThreads;
+
+    @Value("${mid.sign.preparation.queueCapacity}")
+    private int midPreparationQueueCapacity;
+
+    @Autowired
+    private TrustStoreManager trustStoreManager;
+
+    @Autowired
+    private VirtualThreads virtualThreads;
+
+    @Autowired
+    private VerifiedCertificateCache verifiedCertificateCache;
+
+    @Bean
+    public MidClient mobileIdClient() throws Exception {
         return MidClient.newBuilder()
                 .withRelyingPartyUUID(midRelyingPartyUuid)
                 .withRelyingPartyName(midRelyingPartyName)
-                .withHostUrl(midApplicationProviderHost)
-                .withLongPollingTimeoutSeconds(60)
-                .withTrustStore(trustStore)
+                .withHostUrl(midApplicationProviderHosts[0])
+                .withLongPollingTimeoutSeconds(midLongPollingTimeoutSeconds)
+                .withTrustSslContext(midTrustSslContext())
+                .withMobileIdConnector(midConnector())
                 .build();
     }
 
+    @Bean
+    public ResilientMidConnector midConnector() throws Exception {
+        ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, midConnectionManager())
+                .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true)
+                .property(ApacheClientProperties.REQUEST_CONFIG, RequestConfig.custom()
+                        .setConnectionRequestTimeout(midHttpConnectionRequestTimeoutMillis)
+                        .build())
+                .property(ClientProperties.CONNECT_TIMEOUT, midHttpConnectTimeoutMillis)
+                .property(ClientProperties.READ_TIMEOUT, midHttpReadTimeoutMillis)
+                .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED);
+
+        PooledMidHttpClient client = new PooledMidHttpClient(clientConfig);
+
+        Map<String, MidConnector> connectors = new LinkedHashMap<>();
+        for (String host : midApplicationProviderHosts) {
+            connectors.put(host, MidRestConnector.newBuilder()
+                    .withEndpointUrl(host)
+                    .withConfiguredClient(client)
+                    .withRelyingPartyUUID(midRelyingPartyUuid)
+                    .withRelyingPartyName(midRelyingPartyName)
+                    .withSslContext(midTrustSslContext())
+                    .build());
+        }
+
+        return new ResilientMidConnector(connectors, midResilienceFailureThreshold, midResilienceOpenMillis,
+                midResilienceMaxAttempts, midResilienceLatencySmoothing, midResilienceRetryBackoffMillis);
+    }
+
+    @Bean
+    public SSLContext midTrustSslContext() throws Exception {
+        ReloadableTrustManager trustManager = new ReloadableTrustManager(
+                trustStoreManager.getTrustStore(midTrustedServerSslCertsFilename, midTrustedServerSslCertsPassword));
+        trustStoreManager.onReload(midTrustedServerSslCertsFilename, midTrustedServerSslCertsPassword, trustManager::setTrustStore);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[] { trustManager }, null);
+
+        // new pooled connections resume a cached TLS session instead of a full handshake
+        sslContext.getClientSessionContext().setSessionCacheSize(midHttpTlsSessionCacheSize);
+        sslContext.getClientSessionContext().setSessionTimeout(midHttpTlsSessionTimeoutSeconds);
+        return sslContext;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public PoolingHttpClientConnectionManager midConnectionManager() throws Exception {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", new SSLConnectionSocketFactory(midTrustSslContext()))
+                        .build(),
+                null, null, null, midHttpTimeToLiveSeconds, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(midHttpMaxTotal);
+        connectionManager.setDefaultMaxPerRoute(midHttpMaxPerRoute);
+        connectionManager.setValidateAfterInactivity(midHttpValidateAfterInactivityMillis);
+        return connectionManager;
+    }
+
     @Bean
     @Scope(value = WebApplicationContext.SCOPE_SESSION,
             proxyMode = ScopedProxyMode.TARGET_CLASS)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "mid.session.mode", havingValue = "http-session", matchIfMissing = true)
     public UserMidSession userSessionSigning() {
         return new UserMidSession();
     }
 
+    @Bean
+    @Scope(value = WebApplicationContext.SCOPE_REQUEST,
+            proxyMode = ScopedProxyMode.TARGET_CLASS)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "mid.session.mode", havingValue = "token")
+    public UserMidSession tokenUserMidSession(SessionTokenCodec sessionTokenCodec) {
+        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.currentRequestAttributes();
+        return new TokenUserMidSession(sessionTokenCodec, attributes.getRequest(), attributes.getResponse(), midSessionTokenSecureCookie);
+    }
+
     @Bean
     public MidAuthenticationResponseValidator midResponseValidator() throws Exception {
-        InputStream is = Config.class.getResourceAsStream(midTrustedRootCertsFilename);
-        KeyStore trustStore = KeyStore.getInstance("PKCS12");
-        trustStore.load(is, midTrustedRootCertsPassword.toCharArray());
+        IssuerIndexedResponseValidator validator = new IssuerIndexedResponseValidator(
+                trustStoreManager.getTrustStore(midTrustedRootCertsFilename, midTrustedRootCertsPassword));
+        trustStoreManager.onReload(midTrustedRootCertsFilename, midTrustedRootCertsPassword, trustStore -> {
+            validator.setTrustStore(trustStore);
+            // certificates verified against the previous trust store may no longer be trusted
+            verifiedCertificateCache.invalidateAll();
+        });
+        return new CachingResponseValidator(validator, verifiedCertificateCache);
+    }
+
+    @Bean
+    public org.digidoc4j.Configuration digidoc4jConfiguration() {
+        org.digidoc4j.Configuration configuration = new org.digidoc4j.Configuration(digidoc4jMode);
+        configuration.setTslCacheExpirationTime(digidoc4jTslCacheExpirationMillis);
+        return configuration;
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(midSchedulingThreads);
+        scheduler.setThreadNamePrefix("mid-demo-scheduling-");
+        return scheduler;
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler midSessionStatusScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(midPollingThreads);
+        scheduler.setThreadNamePrefix("mid-status-");
+        return scheduler;
+    }
+
+    /**
+     * Runs the status requests scheduled by {@link #midSessionStatusScheduler()}, so a long poll never holds a scheduler thread.
+     */
+    @Bean
+    public TaskExecutor midSessionStatusExecutor() {
+        return taskExecutor("mid-status-poll-", midPollingExecutorThreads, midPollingExecutorQueueCapacity);
+    }
+
+    @Bean
+    public TaskExecutor midAuthenticationExecutor() {
+        return taskExecutor("mid-auth-", midAuthenticationThreads, midAuthenticationQueueCapacity);
+    }
+
+    @Bean
+    public TaskExecutor midSigningExecutor() {
+        return taskExecutor("mid-sign-", midSigningThreads, midSigningQueueCapacity);
+    }
+
+    @Bean
+    public TaskExecutor midPreparationExecutor() {
+        return taskExecutor("mid-prepare-", midPreparationThreads, midPreparationQueueCapacity);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool midBatchPool() {
+        return new ForkJoinPool(midBatchParallelism);
+    }
+
+    @Bean
+    public TaskExecutor midValidationExecutor() {
+        return taskExecutor("mid-validation-", midValidationThreads, midValidationQueueCapacity);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "mid.threads.virtual", havingValue = "true")
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer() {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            if (virtualThreads.isEnabled()) {
+                connector.getProtocolHandler().setExecutor(virtualThreads.newExecutor("http-vt-"));
+            }
+        });
+    }
 
-        return new MidAuthenticationResponseValidator(trustStore);
+    /**
+     * A bounded pool of platform threads, or a virtual thread per task (without a queue limit) in virtual thread mode.
+     */
+    private TaskExecutor taskExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        if (virtualThreads.isEnabled()) {
+            return new ConcurrentTaskExecutor(virtualThreads.newExecutor(threadNamePrefix));
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        return executor;
     }
 
 }
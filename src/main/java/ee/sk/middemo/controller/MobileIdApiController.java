@@ -0,0 +1,242 @@
+package ee.sk.middemo.controller;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import javax.validation.Valid;
+
+import ee.sk.middemo.exception.FileUploadException;
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.SigningSessionInfo;
+import ee.sk.middemo.model.UserMidSession;
+import ee.sk.middemo.model.UserRequest;
+import ee.sk.middemo.model.api.ErrorResponse;
+import ee.sk.middemo.model.api.IdentityResponse;
+import ee.sk.middemo.model.api.SessionStartResponse;
+import ee.sk.middemo.model.api.SessionStatusResponse;
+import ee.sk.middemo.model.api.SigningResultResponse;
+import ee.sk.middemo.model.api.ValidationStatusResponse;
+import ee.sk.middemo.services.ContainerRepository;
+import ee.sk.middemo.services.MobileIdAuthenticationService;
+import ee.sk.middemo.services.MobileIdSignatureService;
+import ee.sk.middemo.services.SignatureValidationService;
+import ee.sk.middemo.services.SigningSessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.scope.ScopedObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.validation.BindException;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * JSON counterpart of {@link MobileIdController} for apps that render their own UI. Sessions are addressed by MID
+ * session id, only the id of the signed container is kept in the {@link UserMidSession}, so that just the signer
+ * can download it.
+ */
+@RestController
+@RequestMapping("/api/v1")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MobileIdApiController {
+    Logger logger = LoggerFactory.getLogger(MobileIdApiController.class);
+
+    private MobileIdSignatureService signatureService;
+    private MobileIdAuthenticationService authenticationService;
+    private SigningSessionStore signingSessionStore;
+    private ContainerRepository containerRepository;
+    private SignatureValidationService validationService;
+
+    private UserMidSession userMidSession;
+
+    @Autowired
+    public MobileIdApiController(MobileIdSignatureService signatureService, MobileIdAuthenticationService authenticationService,
+                                 SigningSessionStore signingSessionStore, ContainerRepository containerRepository,
+                                 SignatureValidationService validationService, UserMidSession userMidSession) {
+        this.signatureService = signatureService;
+        this.authenticationService = authenticationService;
+        this.signingSessionStore = signingSessionStore;
+        this.containerRepository = containerRepository;
+        this.validationService = validationService;
+        this.userMidSession = userMidSession;
+    }
+
+    @PostMapping(value = "/authentications")
+    public SessionStartResponse startAuthentication(@RequestBody @Valid UserRequest userRequest) {
+        return SessionStartResponse.of(authenticationService.startAuthentication(userRequest));
+    }
+
+    @GetMapping(value = "/authentications/{sessionId}")
+    public SessionStatusResponse authenticationStatus(@PathVariable String sessionId) {
+        return SessionStatusResponse.of(authenticationService.getAuthenticationStatus(authenticationSession(sessionId)));
+    }
+
+    @PostMapping(value = "/authentications/{sessionId}/identity")
+    public IdentityResponse authenticate(@PathVariable String sessionId) {
+        return IdentityResponse.of(authenticationService.authenticate(authenticationSession(sessionId)));
+    }
+
+    /**
+     * Signs {@code file}, or all {@code files} in one container.
+     */
+    @PostMapping(value = "/signatures", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public SessionStartResponse startSigning(@Valid UserRequest userRequest, BindingResult bindingResult) throws BindException {
+        userRequest.getFiles().removeIf(file -> file == null || file.isEmpty());
+
+        boolean batch = !userRequest.getFiles().isEmpty();
+
+        if (!batch && (userRequest.getFile() == null || userRequest.getFile().isEmpty())) {
+            bindingResult.rejectValue("file", "error.file", "Please select a file to upload");
+        }
+
+        if (bindingResult.hasErrors()) {
+            throw new BindException(bindingResult);
+        }
+
+        SigningSessionInfo signingSessionInfo = batch
+            ? signatureService.sendBatchSignatureRequest(userRequest)
+            : signatureService.sendSignatureRequest(userRequest);
+
+        signingSessionStore.save(signingSessionInfo);
+
+        return SessionStartResponse.of(signingSessionInfo);
+    }
+
+    /**
+     * Completes when the user has entered PIN2 and the container has been signed.
+     */
+    @PostMapping(value = "/signatures/{sessionId}/result")
+    public DeferredResult<SigningResultResponse> sign(@PathVariable String sessionId) {
+        SigningSessionInfo signingSessionInfo = signingSessionStore.load(sessionId);
+        signingSessionStore.remove(sessionId);
+
+        // the scoped proxy only works on the request thread, signing completes on another one
+        UserMidSession session = userMidSession instanceof ScopedObject
+            ? (UserMidSession) ((ScopedObject) userMidSession).getTargetObject()
+            : userMidSession;
+
+        DeferredResult<SigningResultResponse> result = new DeferredResult<>();
+
+        signatureService.signAsync(signingSessionInfo).whenComplete((signingResult, error) -> {
+            if (error != null) {
+                result.setErrorResult(error instanceof CompletionException ? error.getCause() : error);
+                return;
+            }
+            session.setContainerId(signingResult.getContainerId());
+
+            result.setResult(SigningResultResponse.of(signingResult));
+        });
+
+        return result;
+    }
+
+    @GetMapping(value = "/validations/{signatureDigest}")
+    public ValidationStatusResponse signatureValidation(@PathVariable String signatureDigest) {
+        CompletableFuture<Boolean> validation = validationService.getValidationResult(signatureDigest);
+
+        if (validation == null) {
+            throw new MidOperationException("Signature validation result not found or expired.");
+        }
+        return ValidationStatusResponse.of(validation);
+    }
+
+    @GetMapping(value = "/containers/{containerId}")
+    public ResponseEntity<Resource> downloadContainer(@PathVariable String containerId) {
+        if (!containerId.equals(userMidSession.getContainerId())) {
+            return ResponseEntity.notFound().build();
+        }
+        Resource container = containerRepository.find(containerId);
+
+        if (container == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/vnd.etsi.asic-e+zip"))
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + containerId + ".asice\"")
+            .body(container);
+    }
+
+    private static AuthenticationSessionInfo authenticationSession(String sessionId) {
+        return AuthenticationSessionInfo.newBuilder().withSessionID(sessionId).build();
+    }
+
+    @ExceptionHandler(BindException.class)
+    public ResponseEntity<ErrorResponse> handleBindException(BindException exception) {
+        return invalidRequest(exception.getBindingResult());
+    }
+
+    @ExceptionHandler(MethodArgumentNotValidException.class)
+    public ResponseEntity<ErrorResponse> handleMethodArgumentNotValidException(MethodArgumentNotValidException exception) {
+        return invalidRequest(exception.getBindingResult());
+    }
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<ErrorResponse> handleHttpMessageNotReadableException(HttpMessageNotReadableException exception) {
+        return ResponseEntity.badRequest().body(ErrorResponse.of("Malformed request body"));
+    }
+
+    @ExceptionHandler(FileUploadException.class)
+    public ResponseEntity<ErrorResponse> handleFileUploadException(FileUploadException exception) {
+        return ResponseEntity.badRequest().body(ErrorResponse.of("File upload error"));
+    }
+
+    @ExceptionHandler(MidOperationException.class)
+    public ResponseEntity<ErrorResponse> handleMidOperationException(MidOperationException exception) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ErrorResponse.of(exception.getMessage()));
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<ErrorResponse> handleException(Exception exception) {
+        logger.warn("Generic error caught", exception);
+
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ErrorResponse.of("Internal error"));
+    }
+
+    private static ResponseEntity<ErrorResponse> invalidRequest(BindingResult bindingResult) {
+        List<String> fieldErrors = bindingResult.getFieldErrors().stream()
+            .map(error -> error.getField() + ": " + error.getDefaultMessage())
+            .collect(Collectors.toList());
+
+        return ResponseEntity.badRequest().body(ErrorResponse.of("Invalid request", fieldErrors));
+    }
+}
@@ -28,29 +28,53 @@ import ee.sk.middemo.exception.MidOperationException;
 import ee.sk.middemo.model.*;
 import ee.sk.middemo.services.MobileIdAuthenticationService;
 import ee.sk.middemo.services.MobileIdSignatureService;
+import ee.sk.middemo.services.SignatureValidationService;
+import ee.sk.middemo.services.ContainerRepository;
+import ee.sk.middemo.services.SigningSessionStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.aop.scope.ScopedObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.ui.ModelMap;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.validation.Valid;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class MobileIdController {
     Logger logger = LoggerFactory.getLogger(MobileIdController.class);
 
     private MobileIdSignatureService signatureService;
     private MobileIdAuthenticationService authenticationService;
+    private SigningSessionStore signingSessionStore;
+    private ContainerRepository containerRepository;
+    private SignatureValidationService validationService;
 
     private UserMidSession userMidSession;
 
     @Autowired
-    public MobileIdController(MobileIdSignatureService signatureService, MobileIdAuthenticationService authenticationService, UserMidSession userMidSession) {
+    public MobileIdController(MobileIdSignatureService signatureService, MobileIdAuthenticationService authenticationService,
+                              SigningSessionStore signingSessionStore, ContainerRepository containerRepository,
+                              SignatureValidationService validationService, UserMidSession userMidSession) {
         this.signatureService = signatureService;
         this.authenticationService = authenticationService;
+        this.signingSessionStore = signingSessionStore;
+        this.containerRepository = containerRepository;
+        this.validationService = validationService;
         this.userMidSession = userMidSession; // session scope, autowired
     }
 
@@ -73,7 +97,32 @@ public class MobileIdController {
 
         SigningSessionInfo signingSessionInfo = signatureService.sendSignatureRequest(userRequest);
 
-        userMidSession.setSigningSessionInfo(signingSessionInfo);
+        signingSessionStore.save(signingSessionInfo);
+        userMidSession.setSigningSessionId(signingSessionInfo.getSessionID());
+
+        model.addAttribute("signingSessionInfo", signingSessionInfo);
+
+        return new ModelAndView("/signature", model);
+    }
+
+    @PostMapping(value = "/batchSignatureRequest")
+    public ModelAndView sendBatchSignatureRequest(@ModelAttribute("userRequest") UserRequest userRequest,
+                                                  BindingResult bindingResult, ModelMap model) {
+
+        userRequest.getFiles().removeIf(file -> file == null || file.isEmpty());
+
+        if (userRequest.getFiles().isEmpty()) {
+            bindingResult.rejectValue("files", "error.files", "Please select files to upload");
+        }
+
+        if (bindingResult.hasErrors()) {
+            return new ModelAndView("index", "userRequest", userRequest);
+        }
+
+        SigningSessionInfo signingSessionInfo = signatureService.sendBatchSignatureRequest(userRequest);
+
+        signingSessionStore.save(signingSessionInfo);
+        userMidSession.setSigningSessionId(signingSessionInfo.getSessionID());
 
         model.addAttribute("signingSessionInfo", signingSessionInfo);
 
@@ -81,15 +130,76 @@ public class MobileIdController {
     }
 
     @PostMapping(value = "/sign")
-    public ModelAndView sign(ModelMap model) {
+    public DeferredResult<ModelAndView> sign(ModelMap model) {
 
-        SigningResult signingResult = signatureService.sign(userMidSession.getSigningSessionInfo());
+        String signingSessionId = userMidSession.getSigningSessionId();
 
+        SigningSessionInfo signingSessionInfo = signingSessionStore.load(signingSessionId);
+
+        signingSessionStore.remove(signingSessionId);
         userMidSession.clearSigningSession();
 
-        model.addAttribute("signingResult", signingResult);
+        // the scoped proxy only works on the request thread, signing completes on another one
+        UserMidSession session = userMidSession instanceof ScopedObject
+            ? (UserMidSession) ((ScopedObject) userMidSession).getTargetObject()
+            : userMidSession;
+
+        DeferredResult<ModelAndView> result = new DeferredResult<>();
+
+        signatureService.signAsync(signingSessionInfo).whenComplete((signingResult, error) -> {
+            if (error != null) {
+                result.setErrorResult(error instanceof CompletionException ? error.getCause() : error);
+                return;
+            }
+
+            session.setContainerId(signingResult.getContainerId());
+
+            model.addAttribute("signingResult", signingResult);
 
-        return new ModelAndView("signingResult", model);
+            result.setResult(new ModelAndView("signingResult", model));
+        });
+
+        return result;
+    }
+
+    @GetMapping(value = "/signatureValidation/{signatureDigest}")
+    public Map<String, Object> signatureValidation(@PathVariable String signatureDigest) {
+        CompletableFuture<Boolean> validation = validationService.getValidationResult(signatureDigest);
+
+        if (validation == null) {
+            throw new MidOperationException("Signature validation result not found or expired.");
+        }
+
+        Map<String, Object> status = new LinkedHashMap<>();
+
+        if (!validation.isDone()) {
+            status.put("state", SessionState.RUNNING.name());
+        }
+        else if (validation.isCompletedExceptionally()) {
+            status.put("state", SessionState.ERROR.name());
+        }
+        else {
+            status.put("state", SessionState.OK.name());
+            status.put("valid", validation.join());
+        }
+        return status;
+    }
+
+    @GetMapping(value = "/containers/{containerId}")
+    public ResponseEntity<Resource> downloadContainer(@PathVariable String containerId) {
+        if (!containerId.equals(userMidSession.getContainerId())) {
+            return ResponseEntity.notFound().build();
+        }
+        Resource container = containerRepository.find(containerId);
+
+        if (container == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/vnd.etsi.asic-e+zip"))
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + containerId + ".asice\"")
+            .body(container);
     }
 
     @PostMapping(value = "/authenticationRequest")
@@ -109,9 +219,25 @@ public class MobileIdController {
         return new ModelAndView("/authentication", model);
     }
 
+    @GetMapping(value = "/authenticationStatus")
+    public ResponseEntity<Map<String, String>> authenticationStatus() {
+        AuthenticationSessionInfo authenticationSessionInfo = userMidSession.getAuthenticationSessionInfo();
+        if (authenticationSessionInfo == null) {
+            // no authentication started in this session, or it has already been finished
+            return ResponseEntity.notFound().build();
+        }
+        AuthenticationSessionStatus status = authenticationService.getAuthenticationStatus(authenticationSessionInfo);
+
+        return ResponseEntity.ok(Collections.singletonMap("state", status.getState().name()));
+    }
+
     @PostMapping(value = "/authenticate")
     public ModelAndView authenticate(ModelMap model) {
-        MidAuthenticationIdentity person = authenticationService.authenticate(userMidSession.getAuthenticationSessionInfo());
+        AuthenticationSessionInfo authenticationSessionInfo = userMidSession.getAuthenticationSessionInfo();
+        if (authenticationSessionInfo == null) {
+            throw new MidOperationException("Authentication session not found or expired.");
+        }
+        MidAuthenticationIdentity person = authenticationService.authenticate(authenticationSessionInfo);
         model.addAttribute("person", person);
 
         userMidSession.clearAuthenticationSessionInfo();
@@ -0,0 +1,318 @@
+package ee.sk.middemo.controller;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.validation.Valid;
+import javax.validation.Validator;
+
+import ee.sk.middemo.exception.FileUploadException;
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.AuthenticationSessionStatus;
+import ee.sk.middemo.model.SessionState;
+import ee.sk.middemo.model.SigningSessionInfo;
+import ee.sk.middemo.model.UserRequest;
+import ee.sk.middemo.model.api.ErrorResponse;
+import ee.sk.middemo.model.api.IdentityResponse;
+import ee.sk.middemo.model.api.SessionStartResponse;
+import ee.sk.middemo.model.api.SessionStatusResponse;
+import ee.sk.middemo.model.api.SigningResultResponse;
+import ee.sk.middemo.model.api.ValidationStatusResponse;
+import ee.sk.middemo.services.ContainerRepository;
+import ee.sk.middemo.services.MobileIdAuthenticationService;
+import ee.sk.middemo.services.MobileIdSignatureService;
+import ee.sk.middemo.services.SignatureValidationService;
+import ee.sk.middemo.services.SigningSessionStore;
+import ee.sk.middemo.services.UploadSpooler;
+import org.digidoc4j.DataFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.FormFieldPart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.util.MultiValueMap;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.BindException;
+import org.springframework.validation.BindingResult;
+import org.springframework.validation.beanvalidation.SpringValidatorAdapter;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * WebFlux variant of {@link MobileIdApiController} with the same endpoints, active with
+ * {@code spring.main.web-application-type=reactive}. No server thread waits for MID or the user: MID calls and
+ * Digidoc4j work run on the bounded service executors, file stores are accessed on {@code midPreparationExecutor}.
+ * The id of the signed container is kept in the {@link WebSession}, so that just the signer can download it.
+ */
+@RestController
+@RequestMapping("/api/v1")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveMobileIdApiController {
+    Logger logger = LoggerFactory.getLogger(ReactiveMobileIdApiController.class);
+
+    private static final String CONTAINER_ID = "containerId";
+
+    private MobileIdSignatureService signatureService;
+    private MobileIdAuthenticationService authenticationService;
+    private SigningSessionStore signingSessionStore;
+    private ContainerRepository containerRepository;
+    private SignatureValidationService validationService;
+    private UploadSpooler uploadSpooler;
+    private SpringValidatorAdapter validator;
+    private Scheduler blockingScheduler;
+
+    @Autowired
+    public ReactiveMobileIdApiController(MobileIdSignatureService signatureService, MobileIdAuthenticationService authenticationService,
+                                         SigningSessionStore signingSessionStore, ContainerRepository containerRepository,
+                                         SignatureValidationService validationService, UploadSpooler uploadSpooler,
+                                         Validator validator, @Qualifier("midPreparationExecutor") TaskExecutor preparationExecutor) {
+        this.signatureService = signatureService;
+        this.authenticationService = authenticationService;
+        this.signingSessionStore = signingSessionStore;
+        this.containerRepository = containerRepository;
+        this.validationService = validationService;
+        this.uploadSpooler = uploadSpooler;
+        this.validator = new SpringValidatorAdapter(validator);
+        this.blockingScheduler = Schedulers.fromExecutor(preparationExecutor);
+    }
+
+    @PostMapping(value = "/authentications")
+    public Mono<SessionStartResponse> startAuthentication(@RequestBody @Valid Mono<UserRequest> userRequest) {
+        return userRequest
+            .flatMap(request -> fromFuture(authenticationService.startAuthenticationAsync(request)))
+            .map(SessionStartResponse::of);
+    }
+
+    @GetMapping(value = "/authentications/{sessionId}")
+    public Mono<SessionStatusResponse> authenticationStatus(@PathVariable String sessionId) {
+        return Mono.fromCallable(() -> SessionStatusResponse.of(authenticationService.getAuthenticationStatus(authenticationSession(sessionId))))
+            .subscribeOn(blockingScheduler);
+    }
+
+    /**
+     * Server-sent events: the current status and, if it is still RUNNING, the final one as soon as MID reports it.
+     */
+    @GetMapping(value = "/authentications/{sessionId}/statuses", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<SessionStatusResponse> authenticationStatuses(@PathVariable String sessionId) {
+        AuthenticationSessionInfo authenticationSessionInfo = authenticationSession(sessionId);
+
+        return Mono.fromCallable(() -> authenticationService.getAuthenticationStatus(authenticationSessionInfo))
+            .subscribeOn(blockingScheduler)
+            .flatMapMany(status -> {
+                if (status.getState() != SessionState.RUNNING) {
+                    return Flux.just(status);
+                }
+                CompletableFuture<AuthenticationSessionStatus> finalStatus = authenticationService.getFinalAuthenticationStatusAsync(authenticationSessionInfo);
+                return Flux.concat(Mono.just(status), fromFuture(finalStatus));
+            })
+            .map(SessionStatusResponse::of);
+    }
+
+    @PostMapping(value = "/authentications/{sessionId}/identity")
+    public Mono<IdentityResponse> authenticate(@PathVariable String sessionId) {
+        return Mono.fromCallable(() -> IdentityResponse.of(authenticationService.authenticate(authenticationSession(sessionId))))
+            .subscribeOn(blockingScheduler);
+    }
+
+    /**
+     * Signs all uploaded {@code file} and {@code files} parts in one container.
+     */
+    @PostMapping(value = "/signatures", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<SessionStartResponse> startSigning(@RequestBody Mono<MultiValueMap<String, Part>> form) {
+        return form
+            .flatMap(parts -> {
+                UserRequest userRequest = new UserRequest();
+                userRequest.setPhoneNumber(formField(parts, "phoneNumber"));
+                userRequest.setNationalIdentityNumber(formField(parts, "nationalIdentityNumber"));
+
+                List<FilePart> documents = Stream.of("file", "files")
+                    .map(parts::get)
+                    .filter(Objects::nonNull)
+                    .flatMap(List::stream)
+                    .filter(part -> part instanceof FilePart && !((FilePart) part).filename().isEmpty())
+                    .map(FilePart.class::cast)
+                    .collect(Collectors.toList());
+
+                BindingResult bindingResult = new BeanPropertyBindingResult(userRequest, "userRequest");
+                validator.validate(userRequest, bindingResult);
+
+                if (documents.isEmpty()) {
+                    bindingResult.rejectValue("file", "error.file", "Please select a file to upload");
+                }
+
+                if (bindingResult.hasErrors()) {
+                    return Mono.error(new BindException(bindingResult));
+                }
+
+                return Flux.fromIterable(documents)
+                    .concatMap(this::spool)
+                    .collectList()
+                    .flatMap(dataFiles -> fromFuture(signatureService.sendSignatureRequestAsync(userRequest, dataFiles)));
+            })
+            .publishOn(blockingScheduler)
+            .map(signingSessionInfo -> {
+                signingSessionStore.save(signingSessionInfo);
+                return SessionStartResponse.of(signingSessionInfo);
+            });
+    }
+
+    /**
+     * Completes when the user has entered PIN2 and the container has been signed.
+     */
+    @PostMapping(value = "/signatures/{sessionId}/result")
+    public Mono<SigningResultResponse> sign(@PathVariable String sessionId, WebSession session) {
+        return Mono.fromCallable(() -> {
+                SigningSessionInfo signingSessionInfo = signingSessionStore.load(sessionId);
+                signingSessionStore.remove(sessionId);
+                return signingSessionInfo;
+            })
+            .subscribeOn(blockingScheduler)
+            .flatMap(signingSessionInfo -> fromFuture(signatureService.signAsync(signingSessionInfo)))
+            .doOnNext(signingResult -> session.getAttributes().put(CONTAINER_ID, signingResult.getContainerId()))
+            .map(SigningResultResponse::of);
+    }
+
+    @GetMapping(value = "/validations/{signatureDigest}")
+    public Mono<ValidationStatusResponse> signatureValidation(@PathVariable String signatureDigest) {
+        CompletableFuture<Boolean> validation = validationService.getValidationResult(signatureDigest);
+
+        if (validation == null) {
+            return Mono.error(new MidOperationException("Signature validation result not found or expired."));
+        }
+        return Mono.just(ValidationStatusResponse.of(validation));
+    }
+
+    @GetMapping(value = "/containers/{containerId}")
+    public Mono<ResponseEntity<Resource>> downloadContainer(@PathVariable String containerId, WebSession session) {
+        if (!containerId.equals(session.getAttribute(CONTAINER_ID))) {
+            return Mono.just(ResponseEntity.notFound().build());
+        }
+        return Mono.fromCallable(() -> containerRepository.find(containerId))
+            .subscribeOn(blockingScheduler)
+            .map(container -> ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/vnd.etsi.asic-e+zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + containerId + ".asice\"")
+                .body(container))
+            .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    private Mono<DataFile> spool(FilePart document) {
+        MediaType contentType = document.headers().getContentType();
+        String mimeType = contentType == null ? MediaType.APPLICATION_OCTET_STREAM_VALUE : contentType.toString();
+
+        return Mono.fromCallable(() -> uploadSpooler.newUploadFile(document.filename()))
+            .subscribeOn(blockingScheduler)
+            .flatMap(file -> document.transferTo(file)
+                .then(Mono.fromCallable(() -> new DataFile(file.toString(), mimeType))))
+            .onErrorMap(IOException.class, FileUploadException::new);
+    }
+
+    private static <T> Mono<T> fromFuture(CompletableFuture<T> future) {
+        return Mono.fromFuture(future)
+            .onErrorMap(error -> error instanceof CompletionException && error.getCause() != null, Throwable::getCause);
+    }
+
+    private static String formField(MultiValueMap<String, Part> parts, String name) {
+        Part part = parts.getFirst(name);
+        return part instanceof FormFieldPart ? ((FormFieldPart) part).value() : null;
+    }
+
+    private static AuthenticationSessionInfo authenticationSession(String sessionId) {
+        return AuthenticationSessionInfo.newBuilder().withSessionID(sessionId).build();
+    }
+
+    @ExceptionHandler(BindException.class)
+    public ResponseEntity<ErrorResponse> handleBindException(BindException exception) {
+        return invalidRequest(exception.getBindingResult());
+    }
+
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<ErrorResponse> handleWebExchangeBindException(WebExchangeBindException exception) {
+        return invalidRequest(exception.getBindingResult());
+    }
+
+    @ExceptionHandler(ServerWebInputException.class)
+    public ResponseEntity<ErrorResponse> handleServerWebInputException(ServerWebInputException exception) {
+        return ResponseEntity.badRequest().body(ErrorResponse.of("Malformed request body"));
+    }
+
+    @ExceptionHandler(FileUploadException.class)
+    public ResponseEntity<ErrorResponse> handleFileUploadException(FileUploadException exception) {
+        return ResponseEntity.badRequest().body(ErrorResponse.of("File upload error"));
+    }
+
+    @ExceptionHandler(MidOperationException.class)
+    public ResponseEntity<ErrorResponse> handleMidOperationException(MidOperationException exception) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ErrorResponse.of(exception.getMessage()));
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<ErrorResponse> handleResponseStatusException(ResponseStatusException exception) {
+        return ResponseEntity.status(exception.getStatus()).body(ErrorResponse.of(exception.getStatus().getReasonPhrase()));
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<ErrorResponse> handleException(Exception exception) {
+        logger.warn("Generic error caught", exception);
+
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ErrorResponse.of("Internal error"));
+    }
+
+    private static ResponseEntity<ErrorResponse> invalidRequest(BindingResult bindingResult) {
+        List<String> fieldErrors = bindingResult.getFieldErrors().stream()
+            .map(error -> error.getField() + ": " + error.getDefaultMessage())
+            .collect(Collectors.toList());
+
+        return ResponseEntity.badRequest().body(ErrorResponse.of("Invalid request", fieldErrors));
+    }
+}
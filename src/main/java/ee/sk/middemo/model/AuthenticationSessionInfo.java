@@ -26,16 +26,22 @@ import ee.sk.mid.MidAuthenticationHashToSign;
 
 public class AuthenticationSessionInfo {
 
+    private String sessionID;
     private MidAuthenticationHashToSign authenticationHash;
     private String verificationCode;
     private UserRequest userRequest;
 
     private AuthenticationSessionInfo(Builder builder) {
+        this.sessionID = builder.sessionID;
         this.authenticationHash = builder.authenticationHash;
         this.verificationCode = builder.verificationCode;
         this.userRequest = builder.userRequest;
     }
 
+    public String getSessionID() {
+        return sessionID;
+    }
+
     public MidAuthenticationHashToSign getAuthenticationHash() {
         return authenticationHash;
     }
@@ -53,6 +59,7 @@ public class AuthenticationSessionInfo {
     }
 
     public static class Builder {
+        private String sessionID;
         private String verificationCode;
         private UserRequest userRequest;
         private MidAuthenticationHashToSign authenticationHash;
@@ -60,6 +67,11 @@ public class AuthenticationSessionInfo {
         private Builder() {
         }
 
+        public Builder withSessionID(String sessionID) {
+            this.sessionID = sessionID;
+            return this;
+        }
+
         public Builder withAuthenticationHash(MidAuthenticationHashToSign authenticationHash) {
             this.authenticationHash = authenticationHash;
             return this;
@@ -0,0 +1,109 @@
+package ee.sk.middemo.model;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Date;
+
+import ee.sk.mid.MidAuthenticationIdentity;
+
+public class AuthenticationSessionStatus {
+
+    private SessionState state;
+    private MidAuthenticationIdentity authenticationIdentity;
+    private String errorMessage;
+    private Date timestamp;
+
+    private AuthenticationSessionStatus(Builder builder) {
+        this.state = builder.state;
+        this.authenticationIdentity = builder.authenticationIdentity;
+        this.errorMessage = builder.errorMessage;
+        this.timestamp = builder.timestamp;
+    }
+
+    public SessionState getState() {
+        return state;
+    }
+
+    public MidAuthenticationIdentity getAuthenticationIdentity() {
+        return authenticationIdentity;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public static AuthenticationSessionStatus running() {
+        return newBuilder().withState(SessionState.RUNNING).build();
+    }
+
+    public static AuthenticationSessionStatus ok(MidAuthenticationIdentity authenticationIdentity) {
+        return newBuilder().withState(SessionState.OK).withAuthenticationIdentity(authenticationIdentity).build();
+    }
+
+    public static AuthenticationSessionStatus error(String errorMessage) {
+        return newBuilder().withState(SessionState.ERROR).withErrorMessage(errorMessage).build();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private SessionState state;
+        private MidAuthenticationIdentity authenticationIdentity;
+        private String errorMessage;
+        private Date timestamp = new Date();
+
+        private Builder() {
+        }
+
+        public Builder withState(SessionState state) {
+            this.state = state;
+            return this;
+        }
+
+        public Builder withAuthenticationIdentity(MidAuthenticationIdentity authenticationIdentity) {
+            this.authenticationIdentity = authenticationIdentity;
+            return this;
+        }
+
+        public Builder withErrorMessage(String errorMessage) {
+            this.errorMessage = errorMessage;
+            return this;
+        }
+
+        public Builder withTimestamp(Date timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public AuthenticationSessionStatus build() {
+            return new AuthenticationSessionStatus(this);
+        }
+    }
+
+}
@@ -29,19 +29,24 @@ public class SigningResult {
     private String result;
     private Boolean valid;
     private Date timestamp;
-    private String containerFilePath;
+    private String containerId;
+    private String signatureDigest;
 
     private SigningResult(Builder builder) {
         this.result = builder.result;
         this.valid = builder.valid;
         this.timestamp = builder.timestamp;
-        this.containerFilePath = builder.containerFilePath;
+        this.containerId = builder.containerId;
+        this.signatureDigest = builder.signatureDigest;
     }
 
     public String getResult() {
         return result;
     }
 
+    /**
+     * @return null while the signature is still being validated
+     */
     public Boolean getValid() {
         return valid;
     }
@@ -50,8 +55,12 @@ public class SigningResult {
         return timestamp;
     }
 
-    public String getContainerFilePath() {
-        return containerFilePath;
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getSignatureDigest() {
+        return signatureDigest;
     }
 
     public static Builder newBuilder() {
@@ -63,7 +72,8 @@ public class SigningResult {
         private String result;
         private Boolean valid;
         private Date timestamp;
-        private String containerFilePath;
+        private String containerId;
+        private String signatureDigest;
 
         public Builder withResult(String result) {
             this.result = result;
@@ -80,8 +90,13 @@ public class SigningResult {
             return this;
         }
 
-        public Builder withContainerFilePath(String containerFilePath) {
-            this.containerFilePath = containerFilePath;
+        public Builder withContainerId(String containerId) {
+            this.containerId = containerId;
+            return this;
+        }
+
+        public Builder withSignatureDigest(String signatureDigest) {
+            this.signatureDigest = signatureDigest;
             return this;
         }
 
@@ -22,10 +22,14 @@ package ee.sk.middemo.model;
  * #L%
  */
 
+import java.io.Serializable;
+
 import org.digidoc4j.Container;
 import org.digidoc4j.DataToSign;
 
-public class SigningSessionInfo {
+public class SigningSessionInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String sessionID;
     private String verificationCode;
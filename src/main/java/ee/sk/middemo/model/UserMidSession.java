@@ -23,15 +23,16 @@ package ee.sk.middemo.model;
  */
 
 public class UserMidSession {
-    private SigningSessionInfo signingSessionInfo;
+    private String signingSessionId;
     private AuthenticationSessionInfo authenticationSessionInfo;
+    private String containerId;
 
-    public SigningSessionInfo getSigningSessionInfo() {
-        return signingSessionInfo;
+    public String getSigningSessionId() {
+        return signingSessionId;
     }
 
-    public void setSigningSessionInfo(SigningSessionInfo signingSessionInfo) {
-        this.signingSessionInfo = signingSessionInfo;
+    public void setSigningSessionId(String signingSessionId) {
+        this.signingSessionId = signingSessionId;
     }
 
     public AuthenticationSessionInfo getAuthenticationSessionInfo() {
@@ -42,8 +43,19 @@ public class UserMidSession {
         this.authenticationSessionInfo = authenticationSessionInfo;
     }
 
+    /**
+     * @return the last container signed in this session, the only one it may download
+     */
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public void setContainerId(String containerId) {
+        this.containerId = containerId;
+    }
+
     public void clearSigningSession() {
-        this.signingSessionInfo = null;
+        this.signingSessionId = null;
     }
 
     public void clearAuthenticationSessionInfo() {
@@ -22,6 +22,9 @@ package ee.sk.middemo.model;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 
@@ -45,6 +48,8 @@ public class UserRequest {
 
     private MultipartFile file;
 
+    private List<MultipartFile> files = new ArrayList<>();
+
     public void setPhoneNumber(String phoneNumber) {
         this.phoneNumber = phoneNumber;
     }
@@ -64,4 +69,12 @@ public class UserRequest {
     public void setFile(MultipartFile file) {
         this.file = file;
     }
+
+    public List<MultipartFile> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<MultipartFile> files) {
+        this.files = files;
+    }
 }
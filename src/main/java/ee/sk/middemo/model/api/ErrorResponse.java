@@ -0,0 +1,53 @@
+package ee.sk.middemo.model.api;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.List;
+
+public class ErrorResponse {
+
+    private final String message;
+    private final List<String> fieldErrors;
+
+    private ErrorResponse(String message, List<String> fieldErrors) {
+        this.message = message;
+        this.fieldErrors = fieldErrors;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public List<String> getFieldErrors() {
+        return fieldErrors;
+    }
+
+    public static ErrorResponse of(String message) {
+        return new ErrorResponse(message, Collections.emptyList());
+    }
+
+    public static ErrorResponse of(String message, List<String> fieldErrors) {
+        return new ErrorResponse(message, fieldErrors);
+    }
+}
@@ -0,0 +1,60 @@
+package ee.sk.middemo.model.api;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import ee.sk.mid.MidAuthenticationIdentity;
+
+public class IdentityResponse {
+
+    private final String givenName;
+    private final String surname;
+    private final String identityCode;
+    private final String country;
+
+    private IdentityResponse(MidAuthenticationIdentity identity) {
+        this.givenName = identity.getGivenName();
+        this.surname = identity.getSurName();
+        this.identityCode = identity.getIdentityCode();
+        this.country = identity.getCountry();
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public String getIdentityCode() {
+        return identityCode;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public static IdentityResponse of(MidAuthenticationIdentity identity) {
+        return new IdentityResponse(identity);
+    }
+}
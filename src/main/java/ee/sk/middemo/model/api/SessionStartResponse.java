@@ -0,0 +1,56 @@
+package ee.sk.middemo.model.api;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.SigningSessionInfo;
+
+/**
+ * MID session that was started, the verification code is to be shown to the user.
+ */
+public class SessionStartResponse {
+
+    private final String sessionId;
+    private final String verificationCode;
+
+    private SessionStartResponse(String sessionId, String verificationCode) {
+        this.sessionId = sessionId;
+        this.verificationCode = verificationCode;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getVerificationCode() {
+        return verificationCode;
+    }
+
+    public static SessionStartResponse of(AuthenticationSessionInfo authenticationSessionInfo) {
+        return new SessionStartResponse(authenticationSessionInfo.getSessionID(), authenticationSessionInfo.getVerificationCode());
+    }
+
+    public static SessionStartResponse of(SigningSessionInfo signingSessionInfo) {
+        return new SessionStartResponse(signingSessionInfo.getSessionID(), signingSessionInfo.getVerificationCode());
+    }
+}
@@ -0,0 +1,51 @@
+package ee.sk.middemo.model.api;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ee.sk.middemo.model.AuthenticationSessionStatus;
+import ee.sk.middemo.model.SessionState;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SessionStatusResponse {
+
+    private final SessionState state;
+    private final String errorMessage;
+
+    private SessionStatusResponse(SessionState state, String errorMessage) {
+        this.state = state;
+        this.errorMessage = errorMessage;
+    }
+
+    public SessionState getState() {
+        return state;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public static SessionStatusResponse of(AuthenticationSessionStatus status) {
+        return new SessionStatusResponse(status.getState(), status.getErrorMessage());
+    }
+}
@@ -0,0 +1,75 @@
+package ee.sk.middemo.model.api;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ee.sk.middemo.model.SigningResult;
+
+/**
+ * Signed container is downloaded from {@code /api/v1/containers/{containerId}} with the session (cookies) of
+ * this response, until {@code mid.sign.containers.maxAgeSeconds} has passed. While {@code valid} is missing the
+ * signature is still being validated, the result is polled from {@code /api/v1/validations/{signatureDigest}}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SigningResultResponse {
+
+    private final String result;
+    private final Boolean valid;
+    private final Date timestamp;
+    private final String containerId;
+    private final String signatureDigest;
+
+    private SigningResultResponse(SigningResult signingResult) {
+        this.result = signingResult.getResult();
+        this.valid = signingResult.getValid();
+        this.timestamp = signingResult.getTimestamp();
+        this.containerId = signingResult.getContainerId();
+        this.signatureDigest = signingResult.getSignatureDigest();
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public Boolean getValid() {
+        return valid;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getSignatureDigest() {
+        return signatureDigest;
+    }
+
+    public static SigningResultResponse of(SigningResult signingResult) {
+        return new SigningResultResponse(signingResult);
+    }
+}
@@ -0,0 +1,58 @@
+package ee.sk.middemo.model.api;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ee.sk.middemo.model.SessionState;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ValidationStatusResponse {
+
+    private final SessionState state;
+    private final Boolean valid;
+
+    private ValidationStatusResponse(SessionState state, Boolean valid) {
+        this.state = state;
+        this.valid = valid;
+    }
+
+    public SessionState getState() {
+        return state;
+    }
+
+    public Boolean getValid() {
+        return valid;
+    }
+
+    public static ValidationStatusResponse of(CompletableFuture<Boolean> validation) {
+        if (!validation.isDone()) {
+            return new ValidationStatusResponse(SessionState.RUNNING, null);
+        }
+        if (validation.isCompletedExceptionally()) {
+            return new ValidationStatusResponse(SessionState.ERROR, null);
+        }
+        return new ValidationStatusResponse(SessionState.OK, validation.join());
+    }
+}
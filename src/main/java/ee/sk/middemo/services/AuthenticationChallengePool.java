@@ -0,0 +1,150 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.sk.mid.MidAuthenticationHashToSign;
+import ee.sk.mid.MidHashType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Random authentication hashes with their verification codes, generated in the background so that starting an
+ * authentication does not wait for the entropy source. Taking a challenge below the low-water mark triggers a
+ * refill; an empty pool falls back to generating the challenge inline.
+ */
+@Component
+public class AuthenticationChallengePool {
+
+    @Value("${mid.auth.challengePool.size}")
+    private int size;
+
+    @Value("${mid.auth.challengePool.lowWaterMark}")
+    private int lowWaterMark;
+
+    @Autowired
+    @Qualifier("taskScheduler")
+    private TaskScheduler scheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // MidAuthenticationHashToSign.generateRandomHashOfDefaultType() seeds a new SecureRandom every time
+    private final SecureRandom random = new SecureRandom();
+
+    private final Queue<Challenge> challenges = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private Counter inlineGenerations;
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("mid.auth.challenge.pool.depth", depth, AtomicInteger::get)
+            .description("Pre-generated authentication challenges ready to be taken")
+            .register(meterRegistry);
+        inlineGenerations = Counter.builder("mid.auth.challenge.pool.misses")
+            .description("Challenges generated inline because the pool was empty")
+            .register(meterRegistry);
+    }
+
+    public Challenge take() {
+        Challenge challenge = challenges.poll();
+
+        if (challenge == null) {
+            inlineGenerations.increment();
+            challenge = generate();
+        }
+        else if (depth.decrementAndGet() < lowWaterMark && refilling.compareAndSet(false, true)) {
+            scheduler.schedule(this::fill, new Date());
+        }
+        return challenge;
+    }
+
+    @Scheduled(fixedDelayString = "${mid.auth.challengePool.refillIntervalMillis}")
+    public void refill() {
+        if (refilling.compareAndSet(false, true)) {
+            fill();
+        }
+    }
+
+    private void fill() {
+        try {
+            while (depth.get() < size) {
+                challenges.add(generate());
+                depth.incrementAndGet();
+            }
+        }
+        finally {
+            refilling.set(false);
+        }
+    }
+
+    private Challenge generate() {
+        byte[] hash = new byte[MidHashType.SHA256.getLengthInBytes()];
+        random.nextBytes(hash);
+
+        MidAuthenticationHashToSign authenticationHash = MidAuthenticationHashToSign.newBuilder()
+            .withHash(hash)
+            .withHashType(MidHashType.SHA256)
+            .build();
+
+        return new Challenge(authenticationHash, authenticationHash.calculateVerificationCode());
+    }
+
+    public static class Challenge {
+
+        private final MidAuthenticationHashToSign authenticationHash;
+        private final String verificationCode;
+
+        private Challenge(MidAuthenticationHashToSign authenticationHash, String verificationCode) {
+            this.authenticationHash = authenticationHash;
+            this.verificationCode = verificationCode;
+        }
+
+        public MidAuthenticationHashToSign getAuthenticationHash() {
+            return authenticationHash;
+        }
+
+        public String getVerificationCode() {
+            return verificationCode;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.AuthenticationSessionStatus;
+import ee.sk.middemo.model.SessionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Server-side state of authentication sessions keyed by MID session id.
+ * A session is RUNNING until the status poll finishes and moves it to OK or ERROR.
+ */
+@Component
+public class AuthenticationSessionRegistry {
+
+    Logger logger = LoggerFactory.getLogger(AuthenticationSessionRegistry.class);
+
+    @Value("${mid.auth.sessionTtlSeconds}")
+    private long sessionTtlSeconds;
+
+    private final Map<String, AuthenticationSessionStatus> sessions = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<AuthenticationSessionStatus>> completions = new ConcurrentHashMap<>();
+
+    public void start(String sessionId) {
+        sessions.put(sessionId, AuthenticationSessionStatus.running());
+    }
+
+    /**
+     * @return false if the session is already known
+     */
+    public boolean startIfAbsent(String sessionId) {
+        return sessions.putIfAbsent(sessionId, AuthenticationSessionStatus.running()) == null;
+    }
+
+    public void complete(String sessionId, AuthenticationSessionStatus status) {
+        sessions.computeIfPresent(sessionId, (id, current) -> status);
+
+        CompletableFuture<AuthenticationSessionStatus> completion = completions.remove(sessionId);
+        if (completion != null) {
+            completion.complete(status);
+        }
+    }
+
+    /**
+     * @return completes with the OK or ERROR status of the session, or null if the session is not known
+     */
+    public CompletableFuture<AuthenticationSessionStatus> whenCompleted(String sessionId) {
+        AuthenticationSessionStatus status = sessions.get(sessionId);
+
+        if (status == null) {
+            return null;
+        }
+        if (status.getState() != SessionState.RUNNING) {
+            return CompletableFuture.completedFuture(status);
+        }
+
+        CompletableFuture<AuthenticationSessionStatus> completion = completions.computeIfAbsent(sessionId, id -> new CompletableFuture<>());
+
+        // complete() may have run before the future was registered
+        status = sessions.get(sessionId);
+        if (status != null && status.getState() != SessionState.RUNNING) {
+            completions.remove(sessionId, completion);
+            completion.complete(status);
+        }
+        return completion;
+    }
+
+    public AuthenticationSessionStatus get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public AuthenticationSessionStatus remove(String sessionId) {
+        return sessions.remove(sessionId);
+    }
+
+    @Scheduled(fixedDelayString = "${mid.auth.sessionCleanupIntervalMillis}")
+    public void removeExpiredSessions() {
+        long expiredBefore = System.currentTimeMillis() - sessionTtlSeconds * 1000;
+
+        if (sessions.values().removeIf(status -> status.getTimestamp().getTime() < expiredBefore)) {
+            logger.debug("Removed expired authentication sessions");
+        }
+
+        completions.forEach((sessionId, completion) -> {
+            if (!sessions.containsKey(sessionId) && completions.remove(sessionId, completion)) {
+                completion.completeExceptionally(new MidOperationException("Authentication session not found or expired."));
+            }
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Short long-polls separated by exponentially growing, jittered delays. Jitter keeps sessions that were started
+ * (or timed out) at the same moment from polling in lock step.
+ */
+@Component
+public class BackoffSessionStatusPollingStrategy implements SessionStatusPollingStrategy {
+
+    @Value("${mid.polling.requestTimeoutSeconds}")
+    private int requestTimeoutSeconds;
+
+    @Value("${mid.polling.intervalMillis}")
+    private long intervalMillis;
+
+    @Value("${mid.polling.maxIntervalMillis}")
+    private long maxIntervalMillis;
+
+    @Value("${mid.polling.backoffMultiplier}")
+    private double backoffMultiplier;
+
+    @Value("${mid.polling.jitter}")
+    private double jitter;
+
+    @Value("${mid.polling.deadlineSeconds}")
+    private long deadlineSeconds;
+
+    @Override
+    public long getDelayBeforeAttemptMillis(int attempt) {
+        double delay = Math.min(intervalMillis * Math.pow(backoffMultiplier, attempt), maxIntervalMillis);
+        double spread = jitter > 0 ? ThreadLocalRandom.current().nextDouble(-jitter, jitter) : 0;
+        return Math.max(0, Math.round(delay * (1 + spread)));
+    }
+
+    @Override
+    public int getLongPollTimeoutSeconds(int attempt) {
+        return requestTimeoutSeconds;
+    }
+
+    @Override
+    public long getDeadlineMillis() {
+        return deadlineSeconds * 1000;
+    }
+}
@@ -0,0 +1,89 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+
+import ee.sk.mid.MidAuthentication;
+import ee.sk.mid.MidAuthenticationIdentity;
+import ee.sk.mid.MidAuthenticationResponseValidator;
+import ee.sk.mid.MidAuthenticationResult;
+import ee.sk.mid.MidSignatureVerifier;
+
+/**
+ * Skips verifying the trust of certificates in {@link VerifiedCertificateCache} and reading the identity from them.
+ * The signature over the hash of the current authentication is always checked. Anything that does not pass on the
+ * short path is validated in full by the delegate, so errors are reported as before.
+ */
+public class CachingResponseValidator extends MidAuthenticationResponseValidator {
+
+    private final MidAuthenticationResponseValidator delegate;
+
+    private final VerifiedCertificateCache verifiedCertificates;
+
+    public CachingResponseValidator(MidAuthenticationResponseValidator delegate, VerifiedCertificateCache verifiedCertificates) {
+        super(Collections.emptyList());
+        this.delegate = delegate;
+        this.verifiedCertificates = verifiedCertificates;
+    }
+
+    @Override
+    public MidAuthenticationResult validate(MidAuthentication authentication) {
+        X509Certificate certificate = authentication.getCertificate();
+        MidAuthenticationIdentity identity = certificate != null ? verifiedCertificates.getIdentity(certificate) : null;
+
+        if (identity != null && "OK".equalsIgnoreCase(authentication.getResult()) && isSignatureValid(authentication, certificate)) {
+            MidAuthenticationResult result = new MidAuthenticationResult();
+            result.setAuthenticationIdentity(identity);
+            return result;
+        }
+
+        MidAuthenticationResult result = delegate.validate(authentication);
+        if (result.isValid()) {
+            verifiedCertificates.put(certificate, result.getAuthenticationIdentity());
+        }
+        return result;
+    }
+
+    private static boolean isSignatureValid(MidAuthentication authentication, X509Certificate certificate) {
+        if (authentication.getSignatureValueInBase64() == null || authentication.getHashType() == null) {
+            return false;
+        }
+        PublicKey publicKey = certificate.getPublicKey();
+        try {
+            switch (publicKey.getAlgorithm()) {
+                case "RSA":
+                    return MidSignatureVerifier.verifyWithRSA(publicKey, authentication);
+                case "EC":
+                    return MidSignatureVerifier.verifyWithECDSA(publicKey, authentication);
+                default:
+                    return false;
+            }
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
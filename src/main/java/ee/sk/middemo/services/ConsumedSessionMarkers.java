@@ -0,0 +1,113 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+import ee.sk.middemo.exception.MidOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Marks authentication sessions whose identity has been handed out, so that a replayed session token can neither
+ * resume the session nor read the identity again. The markers are files in a directory shared by all nodes and are
+ * kept for the token TTL, after which the token itself is no longer accepted.
+ */
+@Component
+@ConditionalOnProperty(name = "mid.session.mode", havingValue = "token")
+public class ConsumedSessionMarkers {
+
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9-]+");
+
+    Logger logger = LoggerFactory.getLogger(ConsumedSessionMarkers.class);
+
+    @Value("${mid.session.token.consumedDirectory}")
+    private String directory;
+
+    @Value("${mid.session.token.ttlSeconds}")
+    private long ttlSeconds;
+
+    private Path markerDirectory;
+
+    @PostConstruct
+    public void createMarkerDirectory() throws IOException {
+        markerDirectory = OwnerOnlyFiles.createDirectories(Paths.get(directory));
+    }
+
+    /**
+     * @return false if the session has already been consumed, on this or any other node
+     */
+    public boolean consume(String sessionId) {
+        try (FileChannel marker = OwnerOnlyFiles.newFileChannel(markerFile(sessionId), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            return true;
+        }
+        catch (FileAlreadyExistsException e) {
+            logger.warn("Authentication session " + sessionId + " has already been consumed");
+            return false;
+        }
+        catch (IOException e) {
+            throw new MidOperationException("Could not record authentication session.", e);
+        }
+    }
+
+    public boolean isConsumed(String sessionId) {
+        return Files.exists(markerFile(sessionId));
+    }
+
+    @Scheduled(fixedDelayString = "${mid.session.token.consumedCleanupIntervalMillis}")
+    public void removeExpiredMarkers() {
+        long expiredBefore = System.currentTimeMillis() - ttlSeconds * 1000;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(markerDirectory, "*.consumed")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < expiredBefore) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Could not remove expired session markers", e);
+        }
+    }
+
+    private Path markerFile(String sessionId) {
+        if (sessionId == null || !SESSION_ID.matcher(sessionId).matches()) {
+            throw new MidOperationException("Invalid authentication session.");
+        }
+        return markerDirectory.resolve(sessionId + ".consumed");
+    }
+}
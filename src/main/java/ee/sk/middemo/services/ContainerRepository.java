@@ -0,0 +1,164 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.digidoc4j.Container;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Signed containers available for download. Containers older than {@code maxAgeSeconds} are removed,
+ * as are the oldest ones once the directory grows over {@code maxTotalSizeMb}.
+ */
+@Component
+public class ContainerRepository {
+
+    private static final Pattern CONTAINER_ID = Pattern.compile("[0-9a-f-]{36}");
+    private static final String EXTENSION = ".asice";
+
+    Logger logger = LoggerFactory.getLogger(ContainerRepository.class);
+
+    @Autowired
+    private MidOperationMetrics metrics;
+
+    @Value("${mid.sign.containers.directory}")
+    private String directory;
+
+    @Value("${mid.sign.containers.maxAgeSeconds}")
+    private long maxAgeSeconds;
+
+    @Value("${mid.sign.containers.maxTotalSizeMb}")
+    private long maxTotalSizeMb;
+
+    private Path containerDirectory;
+
+    @PostConstruct
+    public void createContainerDirectory() throws IOException {
+        containerDirectory = OwnerOnlyFiles.createDirectories(Paths.get(directory));
+    }
+
+    public String save(Container container) throws IOException {
+        String containerId = UUID.randomUUID().toString();
+        Path file = containerFile(containerId);
+
+        metrics.record("saveAsFile", () -> container.saveAsFile(file.toString()));
+        logger.debug("Saved container {} ({} bytes)", containerId, Files.size(file));
+
+        return containerId;
+    }
+
+    public Resource find(String containerId) {
+        if (containerId == null || !CONTAINER_ID.matcher(containerId).matches()) {
+            return null;
+        }
+        Path file = containerFile(containerId);
+
+        return Files.isRegularFile(file) ? new FileSystemResource(file) : null;
+    }
+
+    @Scheduled(fixedDelayString = "${mid.sign.containers.reaperIntervalMillis}")
+    public void removeExpiredContainers() {
+        long expiredBefore = System.currentTimeMillis() - maxAgeSeconds * 1000;
+        long maxTotalSize = maxTotalSizeMb * 1024 * 1024;
+
+        List<StoredContainer> containers = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(containerDirectory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                containers.add(new StoredContainer(file, Files.getLastModifiedTime(file).toMillis(), Files.size(file)));
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Could not list stored containers", e);
+            return;
+        }
+
+        containers.sort(Comparator.comparingLong(StoredContainer::getModified).reversed());
+
+        long retainedSize = 0;
+        for (StoredContainer container : containers) {
+            if (container.getModified() < expiredBefore || retainedSize + container.getSize() > maxTotalSize) {
+                delete(container.getFile());
+            }
+            else {
+                retainedSize += container.getSize();
+            }
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            logger.warn("Could not delete container " + file, e);
+        }
+    }
+
+    private Path containerFile(String containerId) {
+        return containerDirectory.resolve(containerId + EXTENSION);
+    }
+
+    private static class StoredContainer {
+        private final Path file;
+        private final long modified;
+        private final long size;
+
+        StoredContainer(Path file, long modified, long size) {
+            this.file = file;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long getModified() {
+            return modified;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+}
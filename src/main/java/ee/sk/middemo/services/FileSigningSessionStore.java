@@ -0,0 +1,168 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.SigningSessionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Serializes signing sessions into files, so uploaded documents do not stay in the heap
+ * while the user is entering PIN2. Only the owner of the process can access the directory, and reading
+ * a session accepts only the classes a signing session consists of.
+ */
+@Service
+@ConditionalOnProperty(name = "mid.sign.sessionStore.type", havingValue = "file", matchIfMissing = true)
+public class FileSigningSessionStore implements SigningSessionStore {
+
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9-]+");
+
+    // the session info with its Digidoc4j container and data to sign (DSS signature parameters and certificates)
+    private static final List<String> ALLOWED_PACKAGES = Arrays.asList(
+        "ee.sk.middemo.model.", "org.digidoc4j.", "eu.europa.esig.dss.", "org.bouncycastle.",
+        "java.lang.", "java.util.", "java.math.", "java.net.", "java.security.", "java.time.", "javax.security.auth.x500.");
+
+    Logger logger = LoggerFactory.getLogger(FileSigningSessionStore.class);
+
+    @Value("${mid.sign.sessionStore.directory}")
+    private String directory;
+
+    @Value("${mid.sign.sessionStore.ttlSeconds}")
+    private long ttlSeconds;
+
+    private Path storeDirectory;
+
+    @PostConstruct
+    public void createStoreDirectory() throws IOException {
+        storeDirectory = OwnerOnlyFiles.createDirectories(Paths.get(directory));
+    }
+
+    @Override
+    public void save(SigningSessionInfo signingSessionInfo) {
+        try (OutputStream out = Channels.newOutputStream(OwnerOnlyFiles.newFileChannel(sessionFile(signingSessionInfo.getSessionID()),
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+             ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(signingSessionInfo);
+        }
+        catch (IOException e) {
+            throw new MidOperationException("Could not store signing session.", e);
+        }
+    }
+
+    @Override
+    public SigningSessionInfo load(String sessionId) {
+        try (InputStream in = Files.newInputStream(sessionFile(sessionId));
+             ObjectInputStream objectIn = new SessionObjectInputStream(in)) {
+            return (SigningSessionInfo) objectIn.readObject();
+        }
+        catch (NoSuchFileException e) {
+            throw new MidOperationException("Signing session not found or expired.");
+        }
+        catch (IOException | ClassNotFoundException e) {
+            throw new MidOperationException("Could not read signing session.", e);
+        }
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        try {
+            Files.deleteIfExists(sessionFile(sessionId));
+        }
+        catch (IOException e) {
+            logger.warn("Could not delete signing session file", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mid.sign.sessionStore.cleanupIntervalMillis}")
+    public void removeExpiredSessions() {
+        long expiredBefore = System.currentTimeMillis() - ttlSeconds * 1000;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storeDirectory, "*.session")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < expiredBefore) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Could not remove expired signing sessions", e);
+        }
+    }
+
+    private Path sessionFile(String sessionId) {
+        if (sessionId == null || !SESSION_ID.matcher(sessionId).matches()) {
+            throw new MidOperationException("Invalid signing session.");
+        }
+        return storeDirectory.resolve(sessionId + ".session");
+    }
+
+    private static class SessionObjectInputStream extends ObjectInputStream {
+
+        SessionObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String className = desc.getName().replaceFirst("^\\[+", "");
+            // arrays of primitives are named by a single letter after the brackets, e.g. [B
+            boolean primitiveArray = !className.equals(desc.getName()) && className.length() == 1;
+            String elementClassName = className.replaceFirst("^L(.*);$", "$1");
+
+            if (!primitiveArray && ALLOWED_PACKAGES.stream().noneMatch(elementClassName::startsWith)) {
+                throw new InvalidClassException(desc.getName(), "Class is not allowed in a signing session");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in a signing session");
+        }
+    }
+}
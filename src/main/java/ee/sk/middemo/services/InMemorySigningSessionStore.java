@@ -0,0 +1,79 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.SigningSessionInfo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+@ConditionalOnProperty(name = "mid.sign.sessionStore.type", havingValue = "memory")
+public class InMemorySigningSessionStore implements SigningSessionStore {
+
+    @Value("${mid.sign.sessionStore.ttlSeconds}")
+    private long ttlSeconds;
+
+    private final Map<String, StoredSession> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(SigningSessionInfo signingSessionInfo) {
+        sessions.put(signingSessionInfo.getSessionID(), new StoredSession(signingSessionInfo));
+    }
+
+    @Override
+    public SigningSessionInfo load(String sessionId) {
+        StoredSession storedSession = sessionId == null ? null : sessions.get(sessionId);
+
+        if (storedSession == null) {
+            throw new MidOperationException("Signing session not found or expired.");
+        }
+        return storedSession.signingSessionInfo;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    @Scheduled(fixedDelayString = "${mid.sign.sessionStore.cleanupIntervalMillis}")
+    public void removeExpiredSessions() {
+        long expiredBefore = System.currentTimeMillis() - ttlSeconds * 1000;
+
+        sessions.values().removeIf(storedSession -> storedSession.created < expiredBefore);
+    }
+
+    private static class StoredSession {
+        private final SigningSessionInfo signingSessionInfo;
+        private final long created = System.currentTimeMillis();
+
+        StoredSession(SigningSessionInfo signingSessionInfo) {
+            this.signingSessionInfo = signingSessionInfo;
+        }
+    }
+}
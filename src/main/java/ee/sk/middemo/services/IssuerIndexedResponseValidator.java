@@ -0,0 +1,105 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+import ee.sk.mid.MidAuthentication;
+import ee.sk.mid.MidAuthenticationResponseValidator;
+import ee.sk.mid.MidAuthenticationResult;
+import ee.sk.middemo.exception.MidOperationException;
+
+/**
+ * {@link MidAuthenticationResponseValidator} tries to verify the signer's certificate against every trusted CA
+ * certificate in turn. This one indexes the trusted certificates by subject when the trust store is (re)loaded
+ * and validates with a validator that only knows the issuer of the signer's certificate.
+ */
+public class IssuerIndexedResponseValidator extends MidAuthenticationResponseValidator {
+
+    private volatile TrustAnchors trustAnchors;
+
+    public IssuerIndexedResponseValidator(KeyStore trustStore) {
+        super(Collections.emptyList());
+        setTrustStore(trustStore);
+    }
+
+    public void setTrustStore(KeyStore trustStore) {
+        List<X509Certificate> certificates = new ArrayList<>();
+        Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+
+        try {
+            Enumeration<String> aliases = trustStore.aliases();
+            while (aliases.hasMoreElements()) {
+                Certificate certificate = trustStore.getCertificate(aliases.nextElement());
+                if (certificate instanceof X509Certificate) {
+                    X509Certificate caCertificate = (X509Certificate) certificate;
+                    certificates.add(caCertificate);
+                    bySubject.computeIfAbsent(caCertificate.getSubjectX500Principal(), s -> new ArrayList<>()).add(caCertificate);
+                }
+            }
+        }
+        catch (KeyStoreException e) {
+            throw new MidOperationException("Unable to read trusted CA certificates", e);
+        }
+
+        Map<X500Principal, MidAuthenticationResponseValidator> byIssuer = new HashMap<>();
+        bySubject.forEach((subject, caCertificates) -> byIssuer.put(subject, new MidAuthenticationResponseValidator(caCertificates)));
+
+        trustAnchors = new TrustAnchors(byIssuer, new MidAuthenticationResponseValidator(certificates));
+    }
+
+    @Override
+    public MidAuthenticationResult validate(MidAuthentication authentication) {
+        TrustAnchors anchors = trustAnchors;
+        X509Certificate certificate = authentication.getCertificate();
+
+        MidAuthenticationResponseValidator validator = certificate != null
+            ? anchors.byIssuer.get(certificate.getIssuerX500Principal())
+            : null;
+
+        // an unknown issuer fails the same way as with the plain validator
+        return (validator != null ? validator : anchors.all).validate(authentication);
+    }
+
+    private static class TrustAnchors {
+
+        private final Map<X500Principal, MidAuthenticationResponseValidator> byIssuer;
+        private final MidAuthenticationResponseValidator all;
+
+        private TrustAnchors(Map<X500Principal, MidAuthenticationResponseValidator> byIssuer, MidAuthenticationResponseValidator all) {
+            this.byIssuer = byIssuer;
+            this.all = all;
+        }
+    }
+}
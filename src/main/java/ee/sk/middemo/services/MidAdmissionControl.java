@@ -0,0 +1,204 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.UserRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Limits MID sessions started by this node. A start for the same person (national identity number and phone) and
+ * operation while their session is still in flight is rejected, the running session is never handed to another caller.
+ * All in-flight sessions share {@code mid.admission.maxConcurrentSessions} permits; starts beyond that are rejected
+ * right away. A session is in flight from its start until {@link #finished(String)} or for at most {@code inFlightTtlSeconds}.
+ */
+@Component
+public class MidAdmissionControl {
+
+    @Value("${mid.admission.maxConcurrentSessions}")
+    private int maxConcurrentSessions;
+
+    @Value("${mid.admission.inFlightTtlSeconds}")
+    private long inFlightTtlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Semaphore bulkhead;
+
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, String> keysBySessionId = new ConcurrentHashMap<>();
+
+    private Counter duplicates;
+
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() {
+        bulkhead = new Semaphore(maxConcurrentSessions);
+
+        Gauge.builder("mid.admission.sessions", bulkhead, permits -> maxConcurrentSessions - permits.availablePermits())
+            .description("MID sessions started by this node and not finished yet")
+            .register(meterRegistry);
+        duplicates = Counter.builder("mid.admission.duplicates")
+            .description("Starts rejected because the same person already had a session in flight")
+            .register(meterRegistry);
+        rejected = Counter.builder("mid.admission.rejected")
+            .description("Starts rejected because maxConcurrentSessions were in flight")
+            .register(meterRegistry);
+    }
+
+    public static String key(String operation, UserRequest userRequest) {
+        return operation + ":" + userRequest.getNationalIdentityNumber() + ":" + userRequest.getPhoneNumber();
+    }
+
+    /**
+     * @param key       see {@link #key(String, UserRequest)}
+     * @param start     starts the MID session, called only if none is in flight for the key
+     * @param sessionId MID session id of a started session, to be passed to {@link #finished(String)}
+     */
+    public <T> CompletableFuture<T> start(String key, Supplier<CompletableFuture<T>> start, Function<T, String> sessionId) {
+        long now = System.currentTimeMillis();
+        AtomicReference<InFlight> replaced = new AtomicReference<>();
+        AtomicBoolean created = new AtomicBoolean();
+
+        InFlight entry = inFlight.compute(key, (k, current) -> {
+            if (current != null && !current.isExpired(now)) {
+                return current;
+            }
+            replaced.set(current);
+            created.set(true);
+            return new InFlight(now);
+        });
+
+        if (!created.get()) {
+            duplicates.increment();
+            return failed(new MidOperationException("A Mobile-ID request for this person is already in progress. Please complete it on the phone or try again later."));
+        }
+
+        InFlight expired = replaced.get();
+        if (expired != null) {
+            if (expired.sessionId != null) {
+                keysBySessionId.remove(expired.sessionId, key);
+            }
+            expired.release();
+        }
+
+        if (!bulkhead.tryAcquire()) {
+            rejected.increment();
+            inFlight.remove(key, entry);
+            return failed(new MidOperationException("Too many Mobile-ID sessions in progress. Please try again in a moment."));
+        }
+        entry.permit.set(true);
+
+        CompletableFuture<T> started;
+        try {
+            started = start.get();
+        }
+        catch (RuntimeException e) {
+            started = failed(e);
+        }
+
+        return started.whenComplete((session, error) -> {
+            if (error != null) {
+                inFlight.remove(key, entry);
+                entry.release();
+                return;
+            }
+            entry.sessionId = sessionId.apply(session);
+            if (inFlight.get(key) == entry) {
+                keysBySessionId.put(entry.sessionId, key);
+            }
+        });
+    }
+
+    /**
+     * The session has ended (or its final status has been fetched), so the person can start a new one.
+     */
+    public void finished(String sessionId) {
+        String key = keysBySessionId.remove(sessionId);
+        InFlight entry = key == null ? null : inFlight.get(key);
+
+        if (entry != null && sessionId.equals(entry.sessionId) && inFlight.remove(key, entry)) {
+            entry.release();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mid.admission.cleanupIntervalMillis}")
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+
+        inFlight.forEach((key, entry) -> {
+            if (entry.isExpired(now) && inFlight.remove(key, entry)) {
+                if (entry.sessionId != null) {
+                    keysBySessionId.remove(entry.sessionId);
+                }
+                entry.release();
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private class InFlight {
+        private final long startedAt;
+        private final AtomicBoolean permit = new AtomicBoolean();
+        private volatile String sessionId;
+
+        InFlight(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - startedAt > inFlightTtlSeconds * 1000;
+        }
+
+        void release() {
+            if (permit.compareAndSet(true, false)) {
+                bulkhead.release();
+            }
+        }
+    }
+}
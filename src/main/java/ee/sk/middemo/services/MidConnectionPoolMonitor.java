@@ -0,0 +1,73 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Publishes the MID connection pool as {@code mid.client.http.pool.*} metrics and closes connections that have
+ * been idle for too long, before the server or a load balancer drops them under a pending request.
+ */
+@Component
+public class MidConnectionPoolMonitor {
+
+    @Value("${mid.client.http.idleTimeoutSeconds}")
+    private long idleTimeoutSeconds;
+
+    @Autowired
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("mid.client.http.pool.connections", connectionManager, manager -> manager.getTotalStats().getLeased())
+            .tag("state", "leased")
+            .register(meterRegistry);
+        Gauge.builder("mid.client.http.pool.connections", connectionManager, manager -> manager.getTotalStats().getAvailable())
+            .tag("state", "available")
+            .register(meterRegistry);
+        Gauge.builder("mid.client.http.pool.pending", connectionManager, manager -> manager.getTotalStats().getPending())
+            .description("Requests waiting for a connection")
+            .register(meterRegistry);
+        Gauge.builder("mid.client.http.pool.max", connectionManager, manager -> manager.getTotalStats().getMax())
+            .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${mid.client.http.idleEvictionIntervalMillis}")
+    public void evictIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,88 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times MID calls and Digidoc4j stages as {@code mid.demo.operation} tagged with the stage
+ * and its outcome: OK or the simple name of the exception thrown (e.g. MidUserCancellationException).
+ */
+@Component
+public class MidOperationMetrics {
+
+    public static final String METRIC_NAME = "mid.demo.operation";
+    public static final String OUTCOME_OK = "OK";
+
+    private final MeterRegistry registry;
+
+    public MidOperationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> T record(String stage, Supplier<T> operation) {
+        Timer.Sample sample = Timer.start(registry);
+        Throwable failure = null;
+
+        try {
+            return operation.get();
+        }
+        catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        }
+        finally {
+            stop(sample, stage, failure);
+        }
+    }
+
+    public <T> CompletableFuture<T> recordAsync(String stage, CompletableFuture<T> operation) {
+        Timer.Sample sample = Timer.start(registry);
+
+        operation.whenComplete((result, failure) -> stop(sample, stage, failure));
+        return operation;
+    }
+
+    private void stop(Timer.Sample sample, String stage, Throwable failure) {
+        sample.stop(Timer.builder(METRIC_NAME)
+            .tag("stage", stage)
+            .tag("outcome", outcome(failure))
+            .register(registry));
+    }
+
+    private static String outcome(Throwable failure) {
+        if (failure == null) {
+            return OUTCOME_OK;
+        }
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure.getClass().getSimpleName();
+    }
+}
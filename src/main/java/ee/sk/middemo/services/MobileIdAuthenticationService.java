@@ -22,13 +22,25 @@ package ee.sk.middemo.services;
  * #L%
  */
 
+import java.util.concurrent.CompletableFuture;
+
 import ee.sk.mid.MidAuthenticationIdentity;
 import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.AuthenticationSessionStatus;
 import ee.sk.middemo.model.UserRequest;
 
 public interface MobileIdAuthenticationService {
 
     AuthenticationSessionInfo startAuthentication(UserRequest userRequest);
 
+    CompletableFuture<AuthenticationSessionInfo> startAuthenticationAsync(UserRequest userRequest);
+
+    AuthenticationSessionStatus getAuthenticationStatus(AuthenticationSessionInfo authenticationSessionInfo);
+
+    /**
+     * Completes when the session is OK or ERROR, without holding a thread while the user enters PIN1.
+     */
+    CompletableFuture<AuthenticationSessionStatus> getFinalAuthenticationStatusAsync(AuthenticationSessionInfo authenticationSessionInfo);
+
     MidAuthenticationIdentity authenticate(AuthenticationSessionInfo authenticationSessionInfo);
 }
@@ -22,6 +22,10 @@ package ee.sk.middemo.services;
  * #L%
  */
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
 import ee.sk.mid.MidAuthentication;
 import ee.sk.mid.MidAuthenticationHashToSign;
 import ee.sk.mid.MidAuthenticationIdentity;
@@ -45,11 +49,14 @@ import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
 import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
 import ee.sk.middemo.exception.MidOperationException;
 import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.AuthenticationSessionStatus;
 import ee.sk.middemo.model.UserRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -66,28 +73,53 @@ public class MobileIdAuthenticationServiceImpl implements MobileIdAuthentication
     @Value("${mid.auth.displayTextLanguage}")
     private MidLanguage midAuthLanguage;
 
+    @Value("#{'${mid.session.mode}' == 'token'}")
+    private boolean resumeUnknownSessions;
+
     @Autowired
     private MidClient client;
 
     @Autowired
     private MidAuthenticationResponseValidator midAuthenticationResponseValidator;
 
-    @Override
-    public AuthenticationSessionInfo startAuthentication(UserRequest userRequest) {
-        MidAuthenticationHashToSign authenticationHash = MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+    @Autowired
+    private MobileIdSessionStatusService sessionStatusService;
 
-        return AuthenticationSessionInfo.newBuilder()
-                .withUserRequest(userRequest)
-                .withAuthenticationHash(authenticationHash)
-                .withVerificationCode(authenticationHash.calculateVerificationCode())
-                .build();
-    }
+    @Autowired
+    private AuthenticationSessionRegistry sessionRegistry;
+
+    @Autowired
+    private AuthenticationChallengePool challengePool;
+
+    @Autowired
+    private MidAdmissionControl admissionControl;
+
+    // only in token mode
+    @Autowired(required = false)
+    private ConsumedSessionMarkers consumedSessionMarkers;
+
+    @Autowired
+    private MidOperationMetrics metrics;
+
+    @Autowired
+    @Qualifier("midAuthenticationExecutor")
+    private TaskExecutor authenticationExecutor;
 
     @Override
-    public MidAuthenticationIdentity authenticate(AuthenticationSessionInfo authenticationSessionInfo) {
+    public AuthenticationSessionInfo startAuthentication(UserRequest userRequest) {
+        try {
+            return admissionControl.start(MidAdmissionControl.key("authentication", userRequest),
+                () -> CompletableFuture.completedFuture(startNewAuthentication(userRequest)),
+                AuthenticationSessionInfo::getSessionID).join();
+        }
+        catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
 
-        UserRequest userRequest = authenticationSessionInfo.getUserRequest();
-        MidAuthenticationHashToSign authenticationHash = authenticationSessionInfo.getAuthenticationHash();
+    private AuthenticationSessionInfo startNewAuthentication(UserRequest userRequest) {
+        AuthenticationChallengePool.Challenge challenge = challengePool.take();
+        MidAuthenticationHashToSign authenticationHash = challenge.getAuthenticationHash();
 
         MidAuthenticationRequest request = MidAuthenticationRequest.newBuilder()
                 .withPhoneNumber(userRequest.getPhoneNumber())
@@ -98,15 +130,158 @@ public class MobileIdAuthenticationServiceImpl implements MobileIdAuthentication
                 .withDisplayTextFormat(midAuthDisplayTextFormat)
                 .build();
 
+        MidAuthenticationResponse response;
+
+        try {
+            response = metrics.record("authenticate", () -> client.getMobileIdConnector().authenticate(request));
+        }
+        catch (MidMissingOrInvalidParameterException | MidUnauthorizedException e) {
+            logger.error("Integrator-side error with MID integration (including insufficient input validation) or configuration", e);
+            throw new MidOperationException("Client side error with mobile-ID integration.", e);
+        }
+        catch (MidInternalErrorException e) {
+            logger.warn("MID service returned internal error that cannot be handled locally.");
+            throw new MidOperationException("MID internal error", e);
+        }
+
+        AuthenticationSessionInfo authenticationSessionInfo = AuthenticationSessionInfo.newBuilder()
+                .withSessionID(response.getSessionID())
+                .withUserRequest(userRequest)
+                .withAuthenticationHash(authenticationHash)
+                .withVerificationCode(challenge.getVerificationCode())
+                .build();
+
+        sessionRegistry.start(response.getSessionID());
+        pollInBackground(authenticationSessionInfo);
+
+        return authenticationSessionInfo;
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionInfo> startAuthenticationAsync(UserRequest userRequest) {
+        return CompletableFuture.supplyAsync(() -> startAuthentication(userRequest), authenticationExecutor);
+    }
+
+    @Override
+    public AuthenticationSessionStatus getAuthenticationStatus(AuthenticationSessionInfo authenticationSessionInfo) {
+        String sessionId = authenticationSessionInfo.getSessionID();
+        AuthenticationSessionStatus status = sessionRegistry.get(sessionId);
+
+        if (status == null && resumeUnknownSessions && authenticationSessionInfo.getAuthenticationHash() != null
+                && !consumedSessionMarkers.isConsumed(sessionId) && sessionRegistry.startIfAbsent(sessionId)) {
+            // started on another node or before a restart, the session token carries all that is needed to finish it here
+            logger.info("Resuming authentication session " + sessionId);
+            resume(authenticationSessionInfo);
+            status = sessionRegistry.get(sessionId);
+        }
+
+        if (status == null) {
+            throw new MidOperationException("Authentication session not found or expired.");
+        }
+        return status;
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionStatus> getFinalAuthenticationStatusAsync(AuthenticationSessionInfo authenticationSessionInfo) {
+        getAuthenticationStatus(authenticationSessionInfo);
+
+        CompletableFuture<AuthenticationSessionStatus> completion = sessionRegistry.whenCompleted(authenticationSessionInfo.getSessionID());
+
+        if (completion == null) {
+            throw new MidOperationException("Authentication session not found or expired.");
+        }
+        return completion;
+    }
+
+    @Override
+    public MidAuthenticationIdentity authenticate(AuthenticationSessionInfo authenticationSessionInfo) {
+        AuthenticationSessionStatus status = getAuthenticationStatus(authenticationSessionInfo);
+
+        switch (status.getState()) {
+            case OK:
+                sessionRegistry.remove(authenticationSessionInfo.getSessionID());
+                // the identity is handed out once, whichever node the session token is presented to
+                if (consumedSessionMarkers != null && !consumedSessionMarkers.consume(authenticationSessionInfo.getSessionID())) {
+                    throw new MidOperationException("Authentication session not found or expired.");
+                }
+                return status.getAuthenticationIdentity();
+            case ERROR:
+                sessionRegistry.remove(authenticationSessionInfo.getSessionID());
+                throw new MidOperationException(status.getErrorMessage());
+            default:
+                throw new MidOperationException("Authentication is still in progress. Please enter PIN1 into your phone.");
+        }
+    }
+
+    private void resume(AuthenticationSessionInfo authenticationSessionInfo) {
+        String sessionId = authenticationSessionInfo.getSessionID();
+        MidSessionStatus sessionStatus;
+
+        try {
+            sessionStatus = sessionStatusService.getCompletedAuthenticationSessionStatus(sessionId);
+        }
+        catch (RuntimeException e) {
+            sessionRegistry.complete(sessionId, finishAuthentication(authenticationSessionInfo, () -> {
+                throw e;
+            }));
+            return;
+        }
+
+        if (sessionStatus == null) {
+            pollInBackground(authenticationSessionInfo);
+        }
+        else {
+            sessionRegistry.complete(sessionId, finishAuthentication(authenticationSessionInfo, () -> sessionStatus));
+        }
+    }
+
+    private void pollInBackground(AuthenticationSessionInfo authenticationSessionInfo) {
+        String sessionId = authenticationSessionInfo.getSessionID();
+
+        sessionStatusService.fetchFinalAuthenticationSessionStatus(sessionId)
+            .handle((sessionStatus, error) -> {
+                admissionControl.finished(sessionId);
+                sessionRegistry.complete(sessionId, finishAuthentication(authenticationSessionInfo, () -> {
+                    if (error != null) {
+                        throw unwrap(error);
+                    }
+                    return sessionStatus;
+                }));
+                return null;
+            });
+    }
+
+    private static RuntimeException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    private AuthenticationSessionStatus finishAuthentication(AuthenticationSessionInfo authenticationSessionInfo,
+                                                             Supplier<MidSessionStatus> finalSessionStatus) {
+        try {
+            return AuthenticationSessionStatus.ok(validateAuthentication(authenticationSessionInfo, finalSessionStatus));
+        }
+        catch (MidOperationException e) {
+            return AuthenticationSessionStatus.error(e.getMessage());
+        }
+        catch (RuntimeException e) {
+            logger.warn("Unexpected error while finishing authentication", e);
+            return AuthenticationSessionStatus.error("Authentication failed.");
+        }
+    }
+
+    private MidAuthenticationIdentity validateAuthentication(AuthenticationSessionInfo authenticationSessionInfo,
+                                                             Supplier<MidSessionStatus> finalSessionStatus) {
+
+        MidAuthenticationHashToSign authenticationHash = authenticationSessionInfo.getAuthenticationHash();
+
         MidAuthenticationResult authenticationResult;
 
         try {
-            MidAuthenticationResponse response = client.getMobileIdConnector().authenticate(request);
-            MidSessionStatus sessionStatus = client.getSessionStatusPoller()
-                .fetchFinalAuthenticationSessionStatus(response.getSessionID());
+            MidSessionStatus sessionStatus = finalSessionStatus.get();
             MidAuthentication authentication = client.createMobileIdAuthentication(sessionStatus, authenticationHash);
 
-            authenticationResult = midAuthenticationResponseValidator.validate(authentication);
+            authenticationResult = metrics.record("validateAuthentication", () -> midAuthenticationResponseValidator.validate(authentication));
 
         }
         catch (MidUserCancellationException e) {
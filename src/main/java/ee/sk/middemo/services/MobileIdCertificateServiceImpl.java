@@ -22,6 +22,9 @@ package ee.sk.middemo.services;
  * #L%
  */
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import ee.sk.mid.MidClient;
 import ee.sk.mid.exception.MidInternalErrorException;
 import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
@@ -31,34 +34,78 @@ import ee.sk.mid.rest.dao.request.MidCertificateRequest;
 import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
 import ee.sk.middemo.exception.MidOperationException;
 import ee.sk.middemo.model.UserRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class MobileIdCertificateServiceImpl implements MobileIdCertificateService {
     Logger logger = LoggerFactory.getLogger(MobileIdCertificateServiceImpl.class);
 
+    @Value("${mid.certificate.cache.maximumSize}")
+    private long cacheMaximumSize;
+
+    @Value("${mid.certificate.cache.ttlSeconds}")
+    private long cacheTtlSeconds;
+
+    @Value("${mid.certificate.cache.notMidClientTtlSeconds}")
+    private long cacheNotMidClientTtlSeconds;
+
     @Autowired
     private MidClient client;
 
+    @Autowired
+    private MidOperationMetrics metrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, CachedCertificate> certificateCache;
+
+    @PostConstruct
+    public void initCertificateCache() {
+        certificateCache = Caffeine.newBuilder()
+            .maximumSize(cacheMaximumSize)
+            .expireAfter(new CertificateExpiry())
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, certificateCache, "midCertificates");
+    }
+
     @Override
     public X509Certificate getCertificate(UserRequest userRequest) {
+        String cacheKey = userRequest.getNationalIdentityNumber() + ":" + userRequest.getPhoneNumber();
+
+        CachedCertificate cachedCertificate = certificateCache.get(cacheKey, key -> fetchCertificate(userRequest));
+
+        if (cachedCertificate.getCertificate() == null) {
+            logger.info("User is not a MID client or user's certificates are revoked");
+            throw new MidOperationException("You are not a Mobile-ID client or your Mobile-ID certificates are revoked. Please contact your mobile operator.");
+        }
+        return cachedCertificate.getCertificate();
+    }
+
+    private CachedCertificate fetchCertificate(UserRequest userRequest) {
         MidCertificateRequest request = MidCertificateRequest.newBuilder()
                 .withPhoneNumber(userRequest.getPhoneNumber())
                 .withNationalIdentityNumber(userRequest.getNationalIdentityNumber())
                 .build();
 
         try {
-            MidCertificateChoiceResponse response = client.getMobileIdConnector().getCertificate(request);
-            return client.createMobileIdCertificate(response);
+            MidCertificateChoiceResponse response = metrics.record("getCertificate", () -> client.getMobileIdConnector().getCertificate(request));
+            return new CachedCertificate(client.createMobileIdCertificate(response));
         }
         catch (MidNotMidClientException e) {
-            logger.info("User is not a MID client or user's certificates are revoked");
-            throw new MidOperationException("You are not a Mobile-ID client or your Mobile-ID certificates are revoked. Please contact your mobile operator.");
+            return new CachedCertificate(null);
         }
         catch (MidMissingOrInvalidParameterException | MidUnauthorizedException e) {
             logger.error("Integrator-side error with MID integration (including insufficient input validation) or configuration", e);
@@ -70,4 +117,42 @@ public class MobileIdCertificateServiceImpl implements MobileIdCertificateServic
         }
 
     }
+
+    private static class CachedCertificate {
+        private final X509Certificate certificate;
+
+        CachedCertificate(X509Certificate certificate) {
+            this.certificate = certificate;
+        }
+
+        X509Certificate getCertificate() {
+            return certificate;
+        }
+    }
+
+    /**
+     * Certificates are kept for the configured TTL but never past their notAfter,
+     * "not a MID client" answers only for a short while.
+     */
+    private class CertificateExpiry implements Expiry<String, CachedCertificate> {
+
+        @Override
+        public long expireAfterCreate(String key, CachedCertificate value, long currentTime) {
+            if (value.getCertificate() == null) {
+                return TimeUnit.SECONDS.toNanos(cacheNotMidClientTtlSeconds);
+            }
+            long untilNotAfter = value.getCertificate().getNotAfter().getTime() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(untilNotAfter, TimeUnit.SECONDS.toMillis(cacheTtlSeconds))));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedCertificate value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedCertificate value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
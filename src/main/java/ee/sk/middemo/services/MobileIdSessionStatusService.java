@@ -0,0 +1,47 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.mid.rest.dao.MidSessionStatus;
+
+/**
+ * Polls MID session status without blocking the calling thread.
+ * Returned futures complete with the final (COMPLETE) session status or exceptionally
+ * with the same {@link ee.sk.mid.exception.MidException} subtypes that
+ * {@link ee.sk.mid.rest.MidSessionStatusPoller} would throw.
+ */
+public interface MobileIdSessionStatusService {
+
+    CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatus(String sessionId);
+
+    CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatus(String sessionId);
+
+    /**
+     * Single status request with the shortest long poll.
+     *
+     * @return the final status or null if the session is still running
+     */
+    MidSessionStatus getCompletedAuthenticationSessionStatus(String sessionId);
+}
@@ -0,0 +1,215 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.mid.MidClient;
+import ee.sk.mid.exception.MidDeliveryException;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidInvalidUserConfigurationException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.exception.MidPhoneNotAvailableException;
+import ee.sk.mid.exception.MidSessionTimeoutException;
+import ee.sk.mid.exception.MidUserCancellationException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.MidSessionStatusPoller;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+/**
+ * Instead of holding a thread for the whole long poll (as {@link MidSessionStatusPoller} does)
+ * every status request uses a short MID-side timeout and the next request is scheduled on a small
+ * shared scheduler. The requests themselves block, so they run on {@code midSessionStatusExecutor}:
+ * with a one second timeout each of its threads makes about one status request of a running session per second,
+ * which together with the polling interval bounds how many pending sessions can be followed.
+ * A status request that fails at the MID host is repeated after the backoff of {@link ResilientMidConnector},
+ * also scheduled, for at most {@code mid.client.resilience.maxAttempts} attempts in a row.
+ */
+@Service
+public class MobileIdSessionStatusServiceImpl implements MobileIdSessionStatusService {
+
+    Logger logger = LoggerFactory.getLogger(MobileIdSessionStatusServiceImpl.class);
+
+    @Autowired
+    private MidClient client;
+
+    @Autowired
+    @Qualifier("midSessionStatusScheduler")
+    private TaskScheduler scheduler;
+
+    @Autowired
+    @Qualifier("midSessionStatusExecutor")
+    private TaskExecutor pollExecutor;
+
+    @Autowired
+    private SessionStatusPollingStrategy pollingStrategy;
+
+    @Autowired
+    private MidOperationMetrics metrics;
+
+    @Override
+    public CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatus(String sessionId) {
+        return metrics.recordAsync("fetchFinalSignatureSessionStatus",
+            fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH));
+    }
+
+    @Override
+    public CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatus(String sessionId) {
+        return metrics.recordAsync("fetchFinalAuthenticationSessionStatus",
+            fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH));
+    }
+
+    @Override
+    public MidSessionStatus getCompletedAuthenticationSessionStatus(String sessionId) {
+        MidSessionStatus sessionStatus = metrics.record("getAuthenticationSessionStatus", () -> client.getMobileIdConnector()
+            .getSessionStatus(new MidSessionStatusRequest(sessionId, 1), MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH));
+
+        if (!"COMPLETE".equalsIgnoreCase(sessionStatus.getState())) {
+            return null;
+        }
+        validateResult(sessionStatus);
+        return sessionStatus;
+    }
+
+    private CompletableFuture<MidSessionStatus> fetchFinalSessionStatus(String sessionId, String path) {
+        logger.debug("Starting to poll session status for session " + sessionId);
+
+        CompletableFuture<MidSessionStatus> result = new CompletableFuture<>();
+        long deadline = System.currentTimeMillis() + pollingStrategy.getDeadlineMillis();
+        schedulePoll(sessionId, path, 0, 0, pollingStrategy.getDelayBeforeAttemptMillis(0), deadline, result);
+        return result;
+    }
+
+    /**
+     * @param failures status requests of the session that failed in a row
+     */
+    private void schedulePoll(String sessionId, String path, int attempt, int failures, long delayMillis, long deadline,
+                              CompletableFuture<MidSessionStatus> result) {
+        long pollAt = System.currentTimeMillis() + delayMillis;
+
+        if (pollAt >= deadline) {
+            logger.info("Giving up polling session " + sessionId + " after " + attempt + " status requests");
+            result.completeExceptionally(new MidSessionTimeoutException());
+            return;
+        }
+        scheduler.schedule(() -> {
+            try {
+                pollExecutor.execute(() -> poll(sessionId, path, attempt, failures, deadline, result));
+            }
+            catch (TaskRejectedException e) {
+                logger.warn("Status request queue is full, postponing the status request of session " + sessionId);
+                schedulePoll(sessionId, path, attempt + 1, failures, pollingStrategy.getDelayBeforeAttemptMillis(attempt + 1), deadline, result);
+            }
+        }, new Date(pollAt));
+    }
+
+    private void poll(String sessionId, String path, int attempt, int failures, long deadline,
+                      CompletableFuture<MidSessionStatus> result) {
+        try {
+            // don't let the long poll run past the deadline, MID accepts no less than a second
+            long remainingSeconds = (deadline - System.currentTimeMillis()) / 1000;
+            int timeoutSeconds = (int) Math.max(1, Math.min(pollingStrategy.getLongPollTimeoutSeconds(attempt), remainingSeconds));
+
+            MidConnector connector = client.getMobileIdConnector();
+            MidSessionStatusRequest request = new MidSessionStatusRequest(sessionId, timeoutSeconds);
+            if (!(connector instanceof ResilientMidConnector)) {
+                handleStatus(sessionId, path, attempt, deadline, result, connector.getSessionStatus(request, path));
+                return;
+            }
+
+            ResilientMidConnector resilientConnector = (ResilientMidConnector) connector;
+            MidSessionStatus sessionStatus;
+            try {
+                sessionStatus = resilientConnector.getSessionStatusOnce(request, path);
+            }
+            catch (RuntimeException e) {
+                if (!ResilientMidConnector.isHostFailure(e) || failures + 1 >= resilientConnector.getMaxAttempts()) {
+                    throw e;
+                }
+                // the session is still running at MID, try again after a backoff instead of blocking this thread
+                logger.warn("Status request of session " + sessionId + " failed (" + e.getMessage() + "), retrying");
+                schedulePoll(sessionId, path, attempt, failures + 1, resilientConnector.getRetryDelayMillis(failures + 1), deadline, result);
+                return;
+            }
+            handleStatus(sessionId, path, attempt, deadline, result, sessionStatus);
+        }
+        catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void handleStatus(String sessionId, String path, int attempt, long deadline,
+                              CompletableFuture<MidSessionStatus> result, MidSessionStatus sessionStatus) {
+        if ("COMPLETE".equalsIgnoreCase(sessionStatus.getState())) {
+            validateResult(sessionStatus);
+            result.complete(sessionStatus);
+        }
+        else {
+            schedulePoll(sessionId, path, attempt + 1, 0, pollingStrategy.getDelayBeforeAttemptMillis(attempt + 1), deadline, result);
+        }
+    }
+
+    /**
+     * Same mapping of end results to exceptions as in {@link MidSessionStatusPoller}.
+     */
+    private void validateResult(MidSessionStatus sessionStatus) {
+        String result = sessionStatus.getResult();
+
+        if (result == null) {
+            logger.error("Result is missing in the session status response");
+            throw new MidInternalErrorException("Result is missing in the session status response");
+        }
+
+        switch (result.toUpperCase()) {
+            case "OK":
+                return;
+            case "TIMEOUT":
+            case "EXPIRED_TRANSACTION":
+                throw new MidSessionTimeoutException();
+            case "NOT_MID_CLIENT":
+                throw new MidNotMidClientException();
+            case "USER_CANCELLED":
+                throw new MidUserCancellationException();
+            case "SIGNATURE_HASH_MISMATCH":
+                throw new MidInvalidUserConfigurationException();
+            case "PHONE_ABSENT":
+                throw new MidPhoneNotAvailableException();
+            case "SIM_ERROR":
+            case "DELIVERY_ERROR":
+                logger.error("Error with SIM or communicating with it");
+                throw new MidDeliveryException();
+            default:
+                throw new MidInternalErrorException("MID returned error code '" + result + "'");
+        }
+    }
+}
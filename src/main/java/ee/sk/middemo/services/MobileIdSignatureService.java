@@ -22,13 +22,30 @@ package ee.sk.middemo.services;
  * #L%
  */
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import ee.sk.middemo.model.SigningResult;
 import ee.sk.middemo.model.SigningSessionInfo;
 import ee.sk.middemo.model.UserRequest;
+import org.digidoc4j.DataFile;
 
 public interface MobileIdSignatureService {
 
     SigningSessionInfo sendSignatureRequest(UserRequest userRequest);
 
+    /**
+     * Puts all {@link UserRequest#getFiles()} into one container, so they are signed with a single PIN2 entry.
+     */
+    SigningSessionInfo sendBatchSignatureRequest(UserRequest userRequest);
+
+    /**
+     * Signs documents that have already been uploaded (the files of {@code userRequest} are ignored) in one container.
+     * Nothing blocks the calling thread.
+     */
+    CompletableFuture<SigningSessionInfo> sendSignatureRequestAsync(UserRequest userRequest, List<DataFile> documents);
+
     SigningResult sign(SigningSessionInfo signingSessionInfo);
+
+    CompletableFuture<SigningResult> signAsync(SigningSessionInfo signingSessionInfo);
 }
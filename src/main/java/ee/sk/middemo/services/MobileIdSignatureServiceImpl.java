@@ -22,10 +22,18 @@ package ee.sk.middemo.services;
  * #L%
  */
 
-import java.io.File;
 import java.io.IOException;
 import java.security.cert.X509Certificate;
-
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import ee.sk.mid.MidClient;
 import ee.sk.mid.MidDisplayTextFormat;
 import ee.sk.mid.MidHashToSign;
@@ -62,10 +70,14 @@ import org.digidoc4j.SignatureProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+
 @Service
 public class MobileIdSignatureServiceImpl implements MobileIdSignatureService {
 
@@ -81,34 +93,204 @@ public class MobileIdSignatureServiceImpl implements MobileIdSignatureService {
     @Value("${mid.sign.displayTextLanguage}")
     private MidLanguage midSignLanguage;
 
+    @Value("${mid.sign.signatureProfile}")
+    private SignatureProfile signatureProfile;
+
+    @Value("${mid.sign.upload.streaming}")
+    private boolean streamUploads;
+
+    @Value("${mid.sign.batch.maxFiles}")
+    private int batchMaxFiles;
+
+    @Value("${mid.sign.sessionStore.ttlSeconds}")
+    private long signingSessionTtlSeconds;
+
     private MobileIdCertificateService certificateService;
 
     @Autowired
     private MidClient client;
 
+    @Autowired
+    private MobileIdSessionStatusService sessionStatusService;
+
+    @Autowired
+    private Configuration configuration;
+
+    @Autowired
+    private UploadSpooler uploadSpooler;
+
+    @Autowired
+    private ContainerRepository containerRepository;
+
+    @Autowired
+    private SignatureValidationService validationService;
+
+    @Autowired
+    private MidOperationMetrics metrics;
+
+    @Autowired
+    private MidAdmissionControl admissionControl;
+
+    @Autowired
+    @Qualifier("midBatchPool")
+    private ForkJoinPool batchPool;
+
+    @Autowired
+    @Qualifier("midPreparationExecutor")
+    private TaskExecutor preparationExecutor;
+
+    @Autowired
+    @Qualifier("midSigningExecutor")
+    private TaskExecutor signingExecutor;
+
+    // final statuses of the signing sessions started by this node, polled in the background
+    private Cache<String, CompletableFuture<MidSessionStatus>> finalSessionStatuses;
+
     public MobileIdSignatureServiceImpl(MobileIdCertificateService certificateService) {
         this.certificateService = certificateService;
     }
 
+    @PostConstruct
+    public void initFinalSessionStatuses() {
+        finalSessionStatuses = Caffeine.newBuilder()
+            .expireAfterWrite(signingSessionTtlSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
     @Override
     public SigningSessionInfo sendSignatureRequest(UserRequest userRequest) {
-        DataFile uploadedFile = getUploadedDataFile(userRequest.getFile());
+        return startOnce(userRequest, () -> CompletableFuture.completedFuture(prepareSignatureRequest(userRequest)));
+    }
 
-        Configuration configuration = new Configuration(Configuration.Mode.TEST);
+    private SigningSessionInfo prepareSignatureRequest(UserRequest userRequest) {
+        // the certificate lookup does not depend on the document, so it runs while the upload is read
+        CompletableFuture<X509Certificate> signingCert = CompletableFuture.supplyAsync(
+            () -> certificateService.getCertificate(userRequest), preparationExecutor);
 
-        Container container = ContainerBuilder.aContainer()
-            .withConfiguration(configuration)
-            .withDataFile(uploadedFile)
-            .build();
+        CompletableFuture<Container> container = CompletableFuture.supplyAsync(
+            () -> getUploadedDataFile(userRequest.getFile()), preparationExecutor)
+            .thenApply(uploadedFile -> ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .withDataFile(uploadedFile)
+                .build());
+
+        try {
+            return requestSignature(userRequest, container.join(), signingCert.join());
+        }
+        catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
 
-        X509Certificate signingCert = certificateService.getCertificate(userRequest);
+    @Override
+    public SigningSessionInfo sendBatchSignatureRequest(UserRequest userRequest) {
+        return startOnce(userRequest, () -> CompletableFuture.completedFuture(prepareBatchSignatureRequest(userRequest)));
+    }
+
+    private SigningSessionInfo prepareBatchSignatureRequest(UserRequest userRequest) {
+        if (userRequest.getFiles().size() > batchMaxFiles) {
+            throw new MidOperationException("At most " + batchMaxFiles + " documents can be signed at once.");
+        }
 
+        CompletableFuture<X509Certificate> signingCert = CompletableFuture.supplyAsync(
+            () -> certificateService.getCertificate(userRequest), batchPool);
 
-        DataToSign dataToSignExternally = SignatureBuilder.aSignature(container)
+        // digests are cached by the data files, so buildDataToSign does not need to hash the documents again
+        List<CompletableFuture<DataFile>> uploadedFiles = userRequest.getFiles().stream()
+            .map(file -> CompletableFuture.supplyAsync(() -> {
+                DataFile dataFile = getUploadedDataFile(file);
+                dataFile.calculateDigest(DigestAlgorithm.SHA256);
+                return dataFile;
+            }, batchPool))
+            .collect(Collectors.toList());
+
+        try {
+            ContainerBuilder containerBuilder = ContainerBuilder.aContainer()
+                .withConfiguration(configuration);
+
+            for (CompletableFuture<DataFile> uploadedFile : uploadedFiles) {
+                containerBuilder.withDataFile(uploadedFile.join());
+            }
+
+            return requestSignature(userRequest, containerBuilder.build(), signingCert.join());
+        }
+        catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<SigningSessionInfo> sendSignatureRequestAsync(UserRequest userRequest, List<DataFile> documents) {
+        return admissionControl.start(MidAdmissionControl.key("signature", userRequest),
+            () -> prepareSignatureRequestAsync(userRequest, documents), SigningSessionInfo::getSessionID)
+            .thenApply(this::pollInBackground);
+    }
+
+    private CompletableFuture<SigningSessionInfo> prepareSignatureRequestAsync(UserRequest userRequest, List<DataFile> documents) {
+        if (documents.size() > batchMaxFiles) {
+            CompletableFuture<SigningSessionInfo> tooManyDocuments = new CompletableFuture<>();
+            tooManyDocuments.completeExceptionally(new MidOperationException("At most " + batchMaxFiles + " documents can be signed at once."));
+            return tooManyDocuments;
+        }
+
+        CompletableFuture<X509Certificate> signingCert = CompletableFuture.supplyAsync(
+            () -> certificateService.getCertificate(userRequest), preparationExecutor);
+
+        CompletableFuture<Container> container = CompletableFuture.supplyAsync(() -> {
+            ContainerBuilder containerBuilder = ContainerBuilder.aContainer()
+                .withConfiguration(configuration);
+
+            for (DataFile document : documents) {
+                document.calculateDigest(DigestAlgorithm.SHA256);
+                containerBuilder.withDataFile(document);
+            }
+            return containerBuilder.build();
+        }, preparationExecutor);
+
+        return container.thenCombineAsync(signingCert,
+            (preparedContainer, cert) -> requestSignature(userRequest, preparedContainer, cert), preparationExecutor);
+    }
+
+    /**
+     * A person signs one set of documents at a time, a start while their signing session is in flight is rejected.
+     */
+    private SigningSessionInfo startOnce(UserRequest userRequest, Supplier<CompletableFuture<SigningSessionInfo>> start) {
+        try {
+            return pollInBackground(admissionControl.start(MidAdmissionControl.key("signature", userRequest),
+                start, SigningSessionInfo::getSessionID).join());
+        }
+        catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Ends the admission of the session as soon as MID reports its final state, also if the user never asks for
+     * the result (e.g. cancels on the phone and closes the page) or asks another node for it.
+     */
+    private SigningSessionInfo pollInBackground(SigningSessionInfo signingSessionInfo) {
+        String sessionId = signingSessionInfo.getSessionID();
+
+        CompletableFuture<MidSessionStatus> finalSessionStatus = sessionStatusService.fetchFinalSignatureSessionStatus(sessionId);
+        finalSessionStatus.whenComplete((sessionStatus, error) -> admissionControl.finished(sessionId));
+        finalSessionStatuses.put(sessionId, finalSessionStatus);
+
+        return signingSessionInfo;
+    }
+
+    private CompletableFuture<MidSessionStatus> finalSessionStatus(String sessionId) {
+        CompletableFuture<MidSessionStatus> finalSessionStatus = finalSessionStatuses.asMap().remove(sessionId);
+
+        // the session was started by another node
+        return finalSessionStatus != null ? finalSessionStatus : sessionStatusService.fetchFinalSignatureSessionStatus(sessionId);
+    }
+
+    private SigningSessionInfo requestSignature(UserRequest userRequest, Container container, X509Certificate signingCert) {
+        DataToSign dataToSignExternally = metrics.record("buildDataToSign", () -> SignatureBuilder.aSignature(container)
             .withSigningCertificate(signingCert)
             .withSignatureDigestAlgorithm(DigestAlgorithm.SHA256)
-            .withSignatureProfile(SignatureProfile.LT)
-            .buildDataToSign();
+            .withSignatureProfile(signatureProfile)
+            .buildDataToSign());
 
         MidHashToSign hashToSign = MidHashToSign.newBuilder()
             .withDataToHash(dataToSignExternally.getDataToSign())
@@ -124,7 +306,7 @@ public class MobileIdSignatureServiceImpl implements MobileIdSignatureService {
             .withDisplayTextFormat(midSignDisplayTextFormat)
             .build();
 
-        MidSignatureResponse response = client.getMobileIdConnector().sign(signatureRequest);
+        MidSignatureResponse response = metrics.record("sign", () -> client.getMobileIdConnector().sign(signatureRequest));
 
         return SigningSessionInfo.newBuilder()
             .withSessionID(response.getSessionID())
@@ -135,6 +317,10 @@ public class MobileIdSignatureServiceImpl implements MobileIdSignatureService {
     }
 
     private DataFile getUploadedDataFile(MultipartFile uploadedFile) {
+        if (streamUploads) {
+            return uploadSpooler.spool(uploadedFile);
+        }
+
         try {
             return new DataFile(uploadedFile.getInputStream(), uploadedFile.getOriginalFilename(), uploadedFile.getContentType());
         } catch (IOException e) {
@@ -144,21 +330,45 @@ public class MobileIdSignatureServiceImpl implements MobileIdSignatureService {
 
     @Override
     public SigningResult sign(SigningSessionInfo signingSessionInfo) {
-        String filePath;
+        return finishSigning(signingSessionInfo, () -> {
+            try {
+                return finalSessionStatus(signingSessionInfo.getSessionID()).join();
+            }
+            catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<SigningResult> signAsync(SigningSessionInfo signingSessionInfo) {
+        return finalSessionStatus(signingSessionInfo.getSessionID())
+            .handleAsync((sessionStatus, error) -> finishSigning(signingSessionInfo, () -> {
+                if (error != null) {
+                    throw unwrap(error);
+                }
+                return sessionStatus;
+            }), signingExecutor);
+    }
+
+    private static RuntimeException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    private SigningResult finishSigning(SigningSessionInfo signingSessionInfo, Supplier<MidSessionStatus> finalSessionStatus) {
+        String containerId;
         Signature signature;
 
         try {
-            MidSessionStatus sessionStatus = client.getSessionStatusPoller()
-                .fetchFinalSignatureSessionStatus(signingSessionInfo.getSessionID());
+            MidSessionStatus sessionStatus = finalSessionStatus.get();
 
             MidSignature mobileIdSignature = client.createMobileIdSignature(sessionStatus);
 
-            signature = signingSessionInfo.getDataToSign().finalize(mobileIdSignature.getValue());
+            signature = metrics.record("finalize", () -> signingSessionInfo.getDataToSign().finalize(mobileIdSignature.getValue()));
             signingSessionInfo.getContainer().addSignature(signature);
 
-            File containerFile = File.createTempFile("mid-demo-container-", ".asice");
-            filePath = containerFile.getAbsolutePath();
-            signingSessionInfo.getContainer().saveAsFile(filePath);
+            containerId = containerRepository.save(signingSessionInfo.getContainer());
 
         }
         catch (MidUserCancellationException e) {
@@ -197,11 +407,15 @@ public class MobileIdSignatureServiceImpl implements MobileIdSignatureService {
             throw new MidOperationException("Could not create container file.", e);
         }
 
+        String signatureDigest = validationService.validateInBackground(signature);
+        CompletableFuture<Boolean> validation = validationService.getValidationResult(signatureDigest);
+
         return SigningResult.newBuilder()
             .withResult("Signing successful")
-            .withValid(signature.validateSignature().isValid())
+            .withValid(validation != null && validation.isDone() && !validation.isCompletedExceptionally() ? validation.join() : null)
+            .withSignatureDigest(signatureDigest)
             .withTimestamp(signature.getTimeStampCreationTime())
-            .withContainerFilePath(filePath)
+            .withContainerId(containerId)
             .build();
 
     }
@@ -0,0 +1,199 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+
+import ee.sk.mid.rest.MidLoggingFilter;
+import org.glassfish.jersey.client.ClientConfig;
+
+/**
+ * JAX-RS client for {@code MidClient.newBuilder().withConfiguredClient()} that keeps pooled connections reusable.
+ *
+ * <p>{@code MidRestConnector} registers a new {@link MidLoggingFilter} on the client before every request.
+ * Jersey copies the client configuration and builds a new client runtime on every registration, which costs
+ * more than the request itself, so components that are already registered are ignored here.
+ */
+public class PooledMidHttpClient implements Client {
+
+    private final Client delegate;
+
+    public PooledMidHttpClient(ClientConfig clientConfig) {
+        this.delegate = ClientBuilder.newClient(clientConfig
+            .register(MidLoggingFilter.class)
+            .register(DrainingReaderInterceptor.class));
+    }
+
+    @Override
+    public Client register(Class<?> componentClass) {
+        if (!isRegistered(componentClass)) {
+            delegate.register(componentClass);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Class<?> componentClass, int priority) {
+        if (!isRegistered(componentClass)) {
+            delegate.register(componentClass, priority);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Class<?> componentClass, Class<?>... contracts) {
+        if (!isRegistered(componentClass)) {
+            delegate.register(componentClass, contracts);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Class<?> componentClass, Map<Class<?>, Integer> contracts) {
+        if (!isRegistered(componentClass)) {
+            delegate.register(componentClass, contracts);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Object component) {
+        if (!isRegistered(component.getClass())) {
+            delegate.register(component);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Object component, int priority) {
+        if (!isRegistered(component.getClass())) {
+            delegate.register(component, priority);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Object component, Class<?>... contracts) {
+        if (!isRegistered(component.getClass())) {
+            delegate.register(component, contracts);
+        }
+        return this;
+    }
+
+    @Override
+    public Client register(Object component, Map<Class<?>, Integer> contracts) {
+        if (!isRegistered(component.getClass())) {
+            delegate.register(component, contracts);
+        }
+        return this;
+    }
+
+    @Override
+    public Client property(String name, Object value) {
+        delegate.property(name, value);
+        return this;
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return delegate.getConfiguration();
+    }
+
+    @Override
+    public WebTarget target(String uri) {
+        return delegate.target(uri);
+    }
+
+    @Override
+    public WebTarget target(URI uri) {
+        return delegate.target(uri);
+    }
+
+    @Override
+    public WebTarget target(UriBuilder uriBuilder) {
+        return delegate.target(uriBuilder);
+    }
+
+    @Override
+    public WebTarget target(Link link) {
+        return delegate.target(link);
+    }
+
+    @Override
+    public Invocation.Builder invocation(Link link) {
+        return delegate.invocation(link);
+    }
+
+    @Override
+    public SSLContext getSslContext() {
+        return delegate.getSslContext();
+    }
+
+    @Override
+    public HostnameVerifier getHostnameVerifier() {
+        return delegate.getHostnameVerifier();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private boolean isRegistered(Class<?> componentClass) {
+        return delegate.getConfiguration().isRegistered(componentClass);
+    }
+
+    /**
+     * Reads responses to the end after the JSON has been parsed. The Apache connector of Jersey closes
+     * the connection instead of returning it to the pool when a response is closed before end of stream.
+     */
+    public static class DrainingReaderInterceptor implements ReaderInterceptor {
+
+        @Override
+        public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+            Object entity = context.proceed();
+
+            InputStream in = context.getInputStream();
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // discard trailing whitespace
+            }
+            return entity;
+        }
+    }
+}
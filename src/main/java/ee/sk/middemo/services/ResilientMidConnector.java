@@ -0,0 +1,396 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServerErrorException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.MidSessionStatusPoller;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} over one or more MID hosts (e.g. {@code MidRestConnector}s of the same relying party).
+ *
+ * <p>Every host has a circuit breaker: after {@code failureThreshold} consecutive failures (5xx answers or I/O errors)
+ * the host gets no requests for {@code openMillis}, then a single trial request decides whether it is used again.
+ * When every host is open, calls fail right away instead of waiting for timeouts.
+ *
+ * <p>New sessions go to the available host with the lowest smoothed latency, weighted by requests in progress.
+ * Status requests go to the host that started the session. Certificate and status requests do not change anything
+ * at MID: a failed one is repeated right away on another host if there is one, otherwise on the same host after a
+ * jittered exponential backoff, for at most {@code maxAttempts} attempts in all. Authentication and signing start a
+ * session, so they are only moved to another host when the connection could not be established and the request
+ * surely was not sent, and never repeated on the same host.
+ * {@link #getSessionStatusOnce} does not wait for a backoff: the status poller reschedules it after
+ * {@link #getRetryDelayMillis(int)} instead of blocking its thread.
+ */
+public class ResilientMidConnector implements MidConnector, MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(ResilientMidConnector.class);
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    private final Cache<String, Endpoint> endpointsBySessionId = Caffeine.newBuilder()
+        .expireAfterWrite(10, TimeUnit.MINUTES)
+        .build();
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private final int maxAttempts;
+
+    private final double latencySmoothing;
+
+    private final long retryBackoffMillis;
+
+    private Counter retries;
+
+    /**
+     * @param connectors         connector per host, in order of preference
+     * @param retryBackoffMillis upper bound of the delay before the first repeat on the same host, doubled for each next one
+     */
+    public ResilientMidConnector(Map<String, MidConnector> connectors, int failureThreshold, long openMillis,
+                                 int maxAttempts, double latencySmoothing, long retryBackoffMillis) {
+        if (connectors.isEmpty()) {
+            throw new IllegalArgumentException("At least one MID host is required");
+        }
+        connectors.forEach((host, connector) -> endpoints.add(new Endpoint(host, connector)));
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.latencySmoothing = latencySmoothing;
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        retries = Counter.builder("mid.client.retries")
+            .description("MID requests repeated on another host or after a backoff on the same host after a failure")
+            .register(registry);
+
+        for (Endpoint endpoint : endpoints) {
+            Gauge.builder("mid.client.circuit.open", endpoint, e -> e.isOpen() ? 1 : 0)
+                .description("1 while requests to the MID host are cut off by its circuit breaker")
+                .tag("host", endpoint.host)
+                .register(registry);
+            Gauge.builder("mid.client.latency", endpoint, e -> e.latencyMillis)
+                .description("Smoothed latency of MID requests other than status long polls")
+                .baseUnit("milliseconds")
+                .tag("host", endpoint.host)
+                .register(registry);
+        }
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        return execute(null, true, true, maxAttempts, connector -> connector.getCertificate(request));
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return startSession(connector -> connector.sign(request), MidSignatureResponse::getSessionID);
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return startSession(connector -> connector.authenticate(request), MidAuthenticationResponse::getSessionID);
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) {
+        return getSessionStatus(request, path, maxAttempts);
+    }
+
+    /**
+     * Single status request, a failure is left to the caller to repeat after {@link #getRetryDelayMillis(int)}.
+     */
+    public MidSessionStatus getSessionStatusOnce(MidSessionStatusRequest request, String path) {
+        return getSessionStatus(request, path, 1);
+    }
+
+    private MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path, int attempts) {
+        Endpoint endpoint = endpointsBySessionId.getIfPresent(request.getSessionID());
+        // long polls take as long as the user does, they say nothing about the host's latency
+        return execute(endpoint, true, false, attempts, connector -> connector.getSessionStatus(request, path));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param retry 1 for the first repeat of a request
+     * @return random delay up to {@code retryBackoffMillis * 2^(retry - 1)}, so that clients do not retry in step
+     */
+    public long getRetryDelayMillis(int retry) {
+        long bound = retryBackoffMillis << Math.min(Math.max(retry - 1, 0), 16);
+        return bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) {
+        return getSessionStatus(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) {
+        return getSessionStatus(request, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        endpoints.forEach(endpoint -> endpoint.connector.setSslTrustContext(sslContext));
+    }
+
+    private <T> T startSession(Function<MidConnector, T> request, Function<T, String> sessionId) {
+        Endpoint[] used = new Endpoint[1];
+        T response = execute(null, false, true, maxAttempts, connector -> {
+            T result = request.apply(connector);
+            used[0] = endpointOf(connector);
+            return result;
+        });
+        endpointsBySessionId.put(sessionId.apply(response), used[0]);
+        return response;
+    }
+
+    /**
+     * @param sticky     the only host to use, others are chosen by latency if {@code null}
+     * @param idempotent whether a request that may have reached MID can be repeated
+     */
+    private <T> T execute(Endpoint sticky, boolean idempotent, boolean recordLatency, int attempts,
+                          Function<MidConnector, T> request) {
+        Set<Endpoint> failed = new HashSet<>();
+        RuntimeException lastFailure = null;
+        int backoffs = 0;
+
+        for (int attempt = 1; ; attempt++) {
+            // another host right away, a host that failed during this call only after a backoff
+            Endpoint endpoint = sticky == null ? select(failed) : null;
+            if (endpoint == null && (lastFailure == null || idempotent)) {
+                if (lastFailure != null && !backoff(++backoffs)) {
+                    throw lastFailure;
+                }
+                failed.clear();
+                endpoint = sticky != null ? (sticky.tryAcquire() ? sticky : null) : select(failed);
+            }
+            if (endpoint == null) {
+                if (lastFailure != null) {
+                    throw lastFailure;
+                }
+                throw new MidInternalErrorException("MID service is unavailable, requests are cut off by the circuit breaker");
+            }
+
+            try {
+                return endpoint.call(request, recordLatency);
+            }
+            catch (RuntimeException e) {
+                if (!isHostFailure(e)) {
+                    throw e;
+                }
+                lastFailure = e;
+                failed.add(endpoint);
+
+                if (attempt >= attempts || !(idempotent || isNotSent(e))) {
+                    throw e;
+                }
+                if (retries != null) {
+                    retries.increment();
+                }
+                logger.warn("MID request to " + endpoint.host + " failed (" + e.getMessage() + "), attempt " + attempt + " of " + attempts);
+            }
+        }
+    }
+
+    /**
+     * @return false if interrupted while waiting
+     */
+    private boolean backoff(int retry) {
+        try {
+            Thread.sleep(getRetryDelayMillis(retry));
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Endpoint select(Set<Endpoint> failed) {
+        List<Endpoint> candidates = new ArrayList<>(endpoints);
+        candidates.removeAll(failed);
+        candidates.sort(Comparator.comparingDouble(Endpoint::load));
+
+        for (Endpoint candidate : candidates) {
+            if (candidate.tryAcquire()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Endpoint endpointOf(MidConnector connector) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.connector == connector) {
+                return endpoint;
+            }
+        }
+        throw new IllegalStateException("Unknown MID connector");
+    }
+
+    /**
+     * @return whether the request failed because of the MID host (5xx answer or I/O error) rather than the request
+     */
+    public static boolean isHostFailure(RuntimeException e) {
+        return e instanceof ProcessingException
+            || e instanceof MidInternalErrorException
+            || e instanceof ServerErrorException;
+    }
+
+    private static boolean isNotSent(RuntimeException e) {
+        if (!(e instanceof ProcessingException)) {
+            return false;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                || cause instanceof ConnectTimeoutException
+                || cause instanceof ConnectionPoolTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    private class Endpoint {
+        private final String host;
+        private final MidConnector connector;
+        private final AtomicInteger inProgress = new AtomicInteger();
+
+        private CircuitState state = CircuitState.CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private volatile double latencyMillis;
+
+        Endpoint(String host, MidConnector connector) {
+            this.host = host;
+            this.connector = connector;
+        }
+
+        double load() {
+            return latencyMillis * (inProgress.get() + 1);
+        }
+
+        synchronized boolean isOpen() {
+            return state != CircuitState.CLOSED;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (state == CircuitState.CLOSED) {
+                return true;
+            }
+            if (state == CircuitState.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+                state = CircuitState.HALF_OPEN;
+                return true;
+            }
+            return false;
+        }
+
+        <T> T call(Function<MidConnector, T> request, boolean recordLatency) {
+            long start = System.nanoTime();
+            inProgress.incrementAndGet();
+            try {
+                T result = request.apply(connector);
+                succeeded(recordLatency ? System.nanoTime() - start : -1);
+                return result;
+            }
+            catch (RuntimeException e) {
+                if (isHostFailure(e)) {
+                    failed();
+                }
+                else {
+                    // MID answered, e.g. that the person has no Mobile-ID
+                    succeeded(recordLatency ? System.nanoTime() - start : -1);
+                }
+                throw e;
+            }
+            finally {
+                inProgress.decrementAndGet();
+            }
+        }
+
+        private synchronized void succeeded(long latencyNanos) {
+            if (state != CircuitState.CLOSED) {
+                logger.info("MID host " + host + " is available again");
+            }
+            state = CircuitState.CLOSED;
+            consecutiveFailures = 0;
+
+            if (latencyNanos >= 0) {
+                double millis = latencyNanos / 1_000_000.0;
+                latencyMillis = latencyMillis == 0 ? millis : latencyMillis + latencySmoothing * (millis - latencyMillis);
+            }
+        }
+
+        private synchronized void failed() {
+            consecutiveFailures++;
+            if (state == CircuitState.HALF_OPEN || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+                logger.warn("MID host " + host + " failed " + consecutiveFailures + " times in a row, not used for " + openMillis + " ms");
+                state = CircuitState.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import ee.sk.mid.MidAuthenticationHashToSign;
+import ee.sk.mid.MidHashType;
+import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.UserMidSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encodes the in-flight MID state of a user (signing session id, authentication session id, hash and verification
+ * code, signed container id) into a compact HMAC-signed token, so that any node sharing the secret can continue the flow.
+ * The token is signed, not encrypted, and carries no personal data.
+ */
+@Component
+@ConditionalOnProperty(name = "mid.session.mode", havingValue = "token")
+public class SessionTokenCodec {
+
+    Logger logger = LoggerFactory.getLogger(SessionTokenCodec.class);
+
+    private static final byte VERSION = 2;
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Value("${mid.session.token.secret}")
+    private String secret;
+
+    @Value("${mid.session.token.ttlSeconds}")
+    private long ttlSeconds;
+
+    private SecretKeySpec key;
+
+    @PostConstruct
+    public void initKey() {
+        if (secret == null || secret.isEmpty()) {
+            logger.warn("mid.session.token.secret is not set, session tokens are only accepted by this node until it restarts");
+            byte[] randomKey = new byte[32];
+            new SecureRandom().nextBytes(randomKey);
+            key = new SecretKeySpec(randomKey, ALGORITHM);
+        }
+        else {
+            key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        }
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public String encode(UserMidSession session) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(System.currentTimeMillis() / 1000 + ttlSeconds);
+            writeOptional(out, session.getSigningSessionId());
+
+            AuthenticationSessionInfo authenticationSessionInfo = session.getAuthenticationSessionInfo();
+            out.writeBoolean(authenticationSessionInfo != null);
+            if (authenticationSessionInfo != null) {
+                MidAuthenticationHashToSign authenticationHash = authenticationSessionInfo.getAuthenticationHash();
+                out.writeUTF(authenticationSessionInfo.getSessionID());
+                out.writeUTF(authenticationSessionInfo.getVerificationCode());
+                out.writeUTF(authenticationHash.getHashType().name());
+                out.writeShort(authenticationHash.getHash().length);
+                out.write(authenticationHash.getHash());
+            }
+            writeOptional(out, session.getContainerId());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unable to encode session token", e);
+        }
+
+        byte[] payload = bytes.toByteArray();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * @return the session in the token or null if the token is missing, tampered with or expired
+     */
+    public UserMidSession decode(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = Base64.getUrlDecoder().decode(token.substring(0, separator));
+            signature = Base64.getUrlDecoder().decode(token.substring(separator + 1));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            logger.warn("Rejected session token with an invalid signature");
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != VERSION || in.readLong() < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+
+            UserMidSession session = new UserMidSession();
+            session.setSigningSessionId(readOptional(in));
+
+            if (in.readBoolean()) {
+                String sessionId = in.readUTF();
+                String verificationCode = in.readUTF();
+                MidHashType hashType = MidHashType.valueOf(in.readUTF());
+                byte[] hash = new byte[in.readUnsignedShort()];
+                in.readFully(hash);
+
+                session.setAuthenticationSessionInfo(AuthenticationSessionInfo.newBuilder()
+                    .withSessionID(sessionId)
+                    .withVerificationCode(verificationCode)
+                    .withAuthenticationHash(MidAuthenticationHashToSign.newBuilder()
+                        .withHash(hash)
+                        .withHashType(hashType)
+                        .build())
+                    .build());
+            }
+            session.setContainerId(readOptional(in));
+            return session;
+        }
+        catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign session token", e);
+        }
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,42 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+import org.digidoc4j.Signature;
+
+public interface SignatureValidationService {
+
+    /**
+     * Starts validating the signature in the background unless it has already been validated.
+     *
+     * @return digest of the signature that identifies the validation result
+     */
+    String validateInBackground(Signature signature);
+
+    /**
+     * @return validation result of the signature or null if the signature is unknown, its validation failed or the result has expired
+     */
+    CompletableFuture<Boolean> getValidationResult(String signatureDigest);
+}
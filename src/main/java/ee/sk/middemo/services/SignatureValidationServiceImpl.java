@@ -0,0 +1,133 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.digidoc4j.Signature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+@Service
+public class SignatureValidationServiceImpl implements SignatureValidationService {
+
+    Logger logger = LoggerFactory.getLogger(SignatureValidationServiceImpl.class);
+
+    @Value("${mid.sign.validation.cache.maximumSize}")
+    private long cacheMaximumSize;
+
+    @Value("${mid.sign.validation.cache.ttlSeconds}")
+    private long cacheTtlSeconds;
+
+    @Autowired
+    @Qualifier("midValidationExecutor")
+    private TaskExecutor validationExecutor;
+
+    @Autowired
+    private MidOperationMetrics metrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, CompletableFuture<Boolean>> validationResults;
+
+    @PostConstruct
+    public void initValidationResultCache() {
+        validationResults = Caffeine.newBuilder()
+            .maximumSize(cacheMaximumSize)
+            .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, validationResults, "midSignatureValidations");
+    }
+
+    @Override
+    public String validateInBackground(Signature signature) {
+        String signatureDigest = digest(signature.getAdESSignature());
+
+        CompletableFuture<Boolean> validation = validationResults.get(signatureDigest, digest -> startValidation(signature));
+
+        // a failed validation is not a result, the next request for the signature may validate it again
+        validation.whenComplete((valid, error) -> {
+            if (error != null) {
+                validationResults.asMap().remove(signatureDigest, validation);
+            }
+        });
+
+        return signatureDigest;
+    }
+
+    private CompletableFuture<Boolean> startValidation(Signature signature) {
+        CompletableFuture<Boolean> validation;
+        try {
+            validation = CompletableFuture.supplyAsync(
+                () -> metrics.record("validateSignature", () -> signature.validateSignature().isValid()), validationExecutor);
+        }
+        catch (RejectedExecutionException e) {
+            // the signature is already stored, it just stays without a validation result
+            logger.warn("Signature validation queue is full, skipping validation");
+            validation = new CompletableFuture<>();
+            validation.completeExceptionally(e);
+            return validation;
+        }
+
+        validation.whenComplete((valid, error) -> {
+            if (error != null) {
+                logger.warn("Signature validation failed", error);
+            }
+        });
+        return validation;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> getValidationResult(String signatureDigest) {
+        return validationResults.getIfPresent(signatureDigest);
+    }
+
+    private static String digest(byte[] signature) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(signature);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import ee.sk.middemo.model.SigningSessionInfo;
+
+/**
+ * Keeps signing sessions (container and data to sign) outside the HTTP session.
+ * Sessions are keyed by MID session id and removed after {@code mid.sign.sessionStore.ttlSeconds}.
+ */
+public interface SigningSessionStore {
+
+    void save(SigningSessionInfo signingSessionInfo);
+
+    /**
+     * @throws ee.sk.middemo.exception.MidOperationException if there is no such session or it has expired
+     */
+    SigningSessionInfo load(String sessionId);
+
+    void remove(String sessionId);
+}
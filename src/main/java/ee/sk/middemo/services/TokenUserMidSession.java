@@ -0,0 +1,108 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.UserMidSession;
+
+/**
+ * {@link UserMidSession} of the current request that is read from and written back to a cookie holding a
+ * {@link SessionTokenCodec} token instead of being kept in the HTTP session.
+ */
+public class TokenUserMidSession extends UserMidSession {
+
+    public static final String COOKIE_NAME = "MID_SESSION";
+
+    private final SessionTokenCodec codec;
+    private final HttpServletResponse response;
+    private final boolean secureCookie;
+
+    public TokenUserMidSession(SessionTokenCodec codec, HttpServletRequest request, HttpServletResponse response, boolean secureCookie) {
+        this.codec = codec;
+        this.response = response;
+        this.secureCookie = secureCookie;
+
+        UserMidSession stored = codec.decode(cookieValue(request));
+        if (stored != null) {
+            super.setSigningSessionId(stored.getSigningSessionId());
+            super.setAuthenticationSessionInfo(stored.getAuthenticationSessionInfo());
+            super.setContainerId(stored.getContainerId());
+        }
+    }
+
+    @Override
+    public void setSigningSessionId(String signingSessionId) {
+        super.setSigningSessionId(signingSessionId);
+        writeCookie();
+    }
+
+    @Override
+    public void setAuthenticationSessionInfo(AuthenticationSessionInfo authenticationSessionInfo) {
+        super.setAuthenticationSessionInfo(authenticationSessionInfo);
+        writeCookie();
+    }
+
+    @Override
+    public void setContainerId(String containerId) {
+        super.setContainerId(containerId);
+        writeCookie();
+    }
+
+    @Override
+    public void clearSigningSession() {
+        super.clearSigningSession();
+        writeCookie();
+    }
+
+    @Override
+    public void clearAuthenticationSessionInfo() {
+        super.clearAuthenticationSessionInfo();
+        writeCookie();
+    }
+
+    private void writeCookie() {
+        boolean empty = getSigningSessionId() == null && getAuthenticationSessionInfo() == null && getContainerId() == null;
+
+        Cookie cookie = new Cookie(COOKIE_NAME, empty ? "" : codec.encode(this));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setSecure(secureCookie);
+        cookie.setMaxAge(empty ? 0 : (int) codec.getTtlSeconds());
+        response.addCookie(cookie);
+    }
+
+    private static String cookieValue(HttpServletRequest request) {
+        if (request.getCookies() != null) {
+            for (Cookie cookie : request.getCookies()) {
+                if (COOKIE_NAME.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,131 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import ee.sk.middemo.exception.MidOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads PKCS12 trust stores once per location and passes the store to the registered listeners whenever the
+ * file changes. Parsed stores are kept across application context refreshes.
+ */
+@Component
+public class TrustStoreManager {
+
+    Logger logger = LoggerFactory.getLogger(TrustStoreManager.class);
+
+    private static final Map<String, ParsedTrustStore> PARSED = new ConcurrentHashMap<>();
+
+    // locations are classpath resources unless prefixed, e.g. with file:
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private final Map<String, List<Consumer<KeyStore>>> listeners = new ConcurrentHashMap<>();
+
+    private final Map<String, String> passwords = new ConcurrentHashMap<>();
+
+    public void onReload(String location, String password, Consumer<KeyStore> listener) {
+        passwords.put(location, password);
+        listeners.computeIfAbsent(location, l -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public KeyStore getTrustStore(String location, String password) {
+        Resource resource = resourceLoader.getResource(location);
+        long lastModified = lastModified(resource);
+
+        return PARSED.compute(location, (l, parsed) ->
+            parsed != null && parsed.lastModified == lastModified && parsed.password.equals(password)
+                ? parsed
+                : new ParsedTrustStore(load(resource, password), lastModified, password)
+        ).trustStore;
+    }
+
+    @Scheduled(fixedDelayString = "${mid.truststore.reloadIntervalMillis}")
+    public void reloadModified() {
+        listeners.forEach((location, locationListeners) -> {
+            ParsedTrustStore current = PARSED.get(location);
+            KeyStore trustStore;
+
+            try {
+                trustStore = getTrustStore(location, passwords.get(location));
+            }
+            catch (MidOperationException e) {
+                logger.error("Keeping the previous trust store, failed to reload " + location, e);
+                return;
+            }
+
+            if (current == null || current.trustStore != trustStore) {
+                logger.info("Trust store " + location + " changed, reloading");
+                locationListeners.forEach(listener -> listener.accept(trustStore));
+            }
+        });
+    }
+
+    private static KeyStore load(Resource resource, String password) {
+        try (InputStream is = resource.getInputStream()) {
+            KeyStore trustStore = KeyStore.getInstance("PKCS12");
+            trustStore.load(is, password.toCharArray());
+            return trustStore;
+        }
+        catch (IOException | GeneralSecurityException e) {
+            throw new MidOperationException("Unable to load trust store " + resource.getDescription(), e);
+        }
+    }
+
+    private static long lastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static class ParsedTrustStore {
+
+        private final KeyStore trustStore;
+        private final long lastModified;
+        private final String password;
+
+        private ParsedTrustStore(KeyStore trustStore, long lastModified, String password) {
+            this.trustStore = trustStore;
+            this.lastModified = lastModified;
+            this.password = password;
+        }
+    }
+}
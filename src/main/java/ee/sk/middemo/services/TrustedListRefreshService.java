@@ -0,0 +1,56 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.digidoc4j.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Loads the trusted list of the shared Digidoc4j configuration right after startup and keeps it fresh,
+ * so that signing requests never have to download or parse the TSL themselves.
+ */
+@Service
+public class TrustedListRefreshService {
+
+    Logger logger = LoggerFactory.getLogger(TrustedListRefreshService.class);
+
+    @Autowired
+    private Configuration configuration;
+
+    @Scheduled(fixedDelayString = "${digidoc4j.tsl.refreshIntervalMillis}")
+    public void refreshTrustedList() {
+        long start = System.currentTimeMillis();
+
+        try {
+            configuration.getTSL().refresh();
+            logger.info("Trusted list refreshed in {} ms", System.currentTimeMillis() - start);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Could not refresh trusted list, keeping the previously loaded one", e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import ee.sk.middemo.exception.FileUploadException;
+import org.digidoc4j.DataFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Copies uploaded files to disk so that Digidoc4j reads and hashes them from a file
+ * instead of a byte array holding the whole document.
+ */
+@Component
+public class UploadSpooler {
+
+    Logger logger = LoggerFactory.getLogger(UploadSpooler.class);
+
+    @Value("${mid.sign.upload.spoolDirectory}")
+    private String spoolDirectory;
+
+    @Value("${mid.sign.upload.ttlSeconds}")
+    private long ttlSeconds;
+
+    private Path spoolPath;
+
+    @PostConstruct
+    public void createSpoolDirectory() throws IOException {
+        spoolPath = OwnerOnlyFiles.createDirectories(Paths.get(spoolDirectory));
+    }
+
+    public DataFile spool(MultipartFile uploadedFile) {
+        try {
+            Path file = newUploadFile(uploadedFile.getOriginalFilename());
+
+            try (InputStream in = uploadedFile.getInputStream();
+                 ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = OwnerOnlyFiles.newFileChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = uploadedFile.getSize();
+                long position = 0;
+                while (position < size) {
+                    long transferred = target.transferFrom(source, position, size - position);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            }
+
+            return new DataFile(file.toString(), uploadedFile.getContentType());
+        }
+        catch (IOException e) {
+            throw new FileUploadException(e);
+        }
+    }
+
+    /**
+     * @return path in the spool directory, removed after ttlSeconds, to write an upload with the given name to
+     */
+    public Path newUploadFile(String originalFilename) throws IOException {
+        // every upload gets its own directory so that the file keeps its original name inside the container
+        Path uploadDirectory = OwnerOnlyFiles.createDirectory(spoolPath.resolve(UUID.randomUUID().toString()));
+        return uploadDirectory.resolve(fileName(originalFilename));
+    }
+
+    @Scheduled(fixedDelayString = "${mid.sign.upload.cleanupIntervalMillis}")
+    public void removeExpiredUploads() {
+        long expiredBefore = System.currentTimeMillis() - ttlSeconds * 1000;
+
+        try (DirectoryStream<Path> uploadDirectories = Files.newDirectoryStream(spoolPath)) {
+            for (Path uploadDirectory : uploadDirectories) {
+                if (Files.getLastModifiedTime(uploadDirectory).toMillis() < expiredBefore) {
+                    FileSystemUtils.deleteRecursively(uploadDirectory);
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Could not remove expired uploads", e);
+        }
+    }
+
+    private static String fileName(String originalFilename) {
+        Path fileName = originalFilename == null ? null : Paths.get(originalFilename.replace('\\', '/')).getFileName();
+
+        return fileName == null ? "document" : fileName.toString();
+    }
+}
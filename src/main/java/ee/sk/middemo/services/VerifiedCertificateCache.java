@@ -0,0 +1,136 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import ee.sk.mid.MidAuthenticationIdentity;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Authentication certificates that have already been verified as trusted, keyed by SHA-256 fingerprint, with the
+ * identity read from them. An entry is dropped at the certificate's notAfter or once the verification is older than
+ * the revocation freshness window, whichever comes first.
+ */
+@Component
+public class VerifiedCertificateCache {
+
+    @Value("${mid.auth.verifiedCertificates.maximumSize}")
+    private long maximumSize;
+
+    @Value("${mid.auth.verifiedCertificates.revocationFreshnessSeconds}")
+    private long revocationFreshnessSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, VerifiedCertificate> cache;
+
+    @PostConstruct
+    public void initCache() {
+        cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new VerificationExpiry())
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "midVerifiedCertificates");
+    }
+
+    /**
+     * @return a copy of the identity of a verified certificate or null if the certificate has not been verified recently
+     */
+    public MidAuthenticationIdentity getIdentity(X509Certificate certificate) {
+        VerifiedCertificate verified = cache.getIfPresent(fingerprint(certificate));
+        return verified != null ? copy(verified.identity) : null;
+    }
+
+    public void put(X509Certificate certificate, MidAuthenticationIdentity identity) {
+        cache.put(fingerprint(certificate), new VerifiedCertificate(certificate.getNotAfter().getTime(), copy(identity)));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static String fingerprint(X509Certificate certificate) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+        }
+        catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            throw new IllegalStateException("Unable to calculate certificate fingerprint", e);
+        }
+    }
+
+    private static MidAuthenticationIdentity copy(MidAuthenticationIdentity identity) {
+        MidAuthenticationIdentity copy = new MidAuthenticationIdentity();
+        copy.setGivenName(identity.getGivenName());
+        copy.setSurName(identity.getSurName());
+        copy.setIdentityCode(identity.getIdentityCode());
+        copy.setCountry(identity.getCountry());
+        return copy;
+    }
+
+    private static class VerifiedCertificate {
+        private final long notAfter;
+        private final MidAuthenticationIdentity identity;
+
+        VerifiedCertificate(long notAfter, MidAuthenticationIdentity identity) {
+            this.notAfter = notAfter;
+            this.identity = identity;
+        }
+    }
+
+    private class VerificationExpiry implements Expiry<String, VerifiedCertificate> {
+
+        @Override
+        public long expireAfterCreate(String key, VerifiedCertificate value, long currentTime) {
+            long untilNotAfter = value.notAfter - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(untilNotAfter, TimeUnit.SECONDS.toMillis(revocationFreshnessSeconds))));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, VerifiedCertificate value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, VerifiedCertificate value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Creates executors that start a virtual thread per task when {@code mid.threads.virtual} is set and the JDK
+ * has virtual threads (21+). The project is built for Java 8, so the JDK API is looked up reflectively.
+ */
+@Component
+public class VirtualThreads {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    @Value("${mid.threads.virtual}")
+    private boolean requested;
+
+    private boolean enabled;
+
+    @PostConstruct
+    public void detect() {
+        if (!requested) {
+            return;
+        }
+        try {
+            newThreadFactory("mid-probe-");
+            enabled = true;
+            logger.info("Running Tomcat requests and MID calls on virtual threads");
+        }
+        catch (ReflectiveOperationException e) {
+            logger.warn("mid.threads.virtual is set, but this JDK (" + System.getProperty("java.version")
+                + ") has no virtual threads. Using platform thread pools.");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param namePrefix prefix of the thread names, followed by a counter
+     */
+    public ExecutorService newExecutor(String namePrefix) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, newThreadFactory(namePrefix));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(String namePrefix) throws ReflectiveOperationException {
+        // Thread.ofVirtual().name(namePrefix, 0).factory()
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Method name = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class);
+        builder = name.invoke(builder, namePrefix, 0L);
+        return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    }
+}
@@ -0,0 +1,142 @@
+package ee.sk.middemo.loadtest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.middemo.MidRestJavaDemoApplication;
+import ee.sk.middemo.mock.LatencyDistribution;
+import ee.sk.middemo.mock.MockMidServer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Runs the signing and authentication flows of the demo application with many concurrent users
+ * against {@link MockMidServer}, both started in this JVM, and writes a {@link LoadTestReport}.
+ *
+ * <p>Run with {@code mvn -Ploadtest verify}, see {@link LoadTestSettings} for the parameters.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = new LoadTestSettings();
+
+        // HttpURLConnection keeps only 5 idle connections per host by default
+        System.setProperty("http.maxConnections", String.valueOf(settings.getUsers()));
+
+        try (MockMidServer mockMidServer = MockMidServer.newBuilder()
+                .withResponseLatency(LatencyDistribution.logNormal(settings.getMidResponseLatencyMedianMillis(), 0.5))
+                .withSessionDuration(LatencyDistribution.logNormal(settings.getMidSessionDurationMedianMillis(), 0.5))
+                .withResultRate("USER_CANCELLED", settings.getMidUserCancelledRate())
+                .withResultRate("TIMEOUT", settings.getMidTimeoutRate())
+                .withResultRate("PHONE_ABSENT", settings.getMidPhoneAbsentRate())
+                .build()
+                .start()) {
+
+            Path trustStore = Files.createTempFile("mock-mid-trusted-root-certs", ".p12");
+            mockMidServer.getPki().writeTrustStore(trustStore, "changeit");
+
+            // command line arguments, as they take precedence over application.yml; further ones can be passed to main
+            List<String> applicationArgs = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--mid.client.applicationProviderHost=" + mockMidServer.getHostUrl(),
+                "--mid.truststore.trusted-root-certs.filename=" + trustStore.toUri(),
+                "--mid.truststore.trusted-root-certs.password=changeit",
+                "--mid.sign.signatureProfile=B_BES"));
+            applicationArgs.addAll(Arrays.asList(args));
+
+            ConfigurableApplicationContext application = new SpringApplicationBuilder(MidRestJavaDemoApplication.class)
+                .run(applicationArgs.toArray(new String[0]));
+
+            try {
+                String baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+                LoadTestReport report = run(settings, baseUrl, application);
+
+                report.print(System.out);
+                System.out.println();
+                System.out.println("Report written to " + report.write(settings.getReportDirectory()));
+
+                if (!settings.getBaseline().isEmpty()) {
+                    report.printComparison(Paths.get(settings.getBaseline()), System.out);
+                }
+            }
+            finally {
+                application.close();
+                Files.deleteIfExists(trustStore);
+            }
+        }
+    }
+
+    private static LoadTestReport run(LoadTestSettings settings, String baseUrl, ConfigurableApplicationContext application) throws Exception {
+        LoadTestStatistics statistics = new LoadTestStatistics();
+        ResourceSampler resources = new ResourceSampler(application);
+
+        byte[] document = new byte[settings.getDocumentSizeBytes()];
+        new Random(42).nextBytes(document);
+
+        long startedNanos = System.nanoTime();
+        long recordingStartsNanos = startedNanos + TimeUnit.SECONDS.toNanos(settings.getWarmupSeconds());
+        long deadlineNanos = recordingStartsNanos + TimeUnit.SECONDS.toNanos(settings.getDurationSeconds());
+
+        ExecutorService users = Executors.newFixedThreadPool(settings.getUsers());
+        for (int i = 0; i < settings.getUsers(); i++) {
+            long rampUpDelayMillis = TimeUnit.SECONDS.toMillis(settings.getRampUpSeconds()) * i / settings.getUsers();
+            VirtualUser user = new VirtualUser(i, baseUrl, settings, statistics, deadlineNanos, document);
+
+            users.execute(() -> {
+                try {
+                    Thread.sleep(rampUpDelayMillis);
+                    user.run();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        users.shutdown();
+
+        TimeUnit.NANOSECONDS.sleep(recordingStartsNanos - System.nanoTime());
+        statistics.startRecording();
+        resources.start();
+
+        TimeUnit.NANOSECONDS.sleep(deadlineNanos - System.nanoTime());
+        statistics.stopRecording();
+        resources.stop();
+
+        // let running flows finish so that the application is not shut down under them
+        if (!users.awaitTermination(settings.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+            users.shutdownNow();
+        }
+
+        return new LoadTestReport(settings, statistics, resources);
+    }
+}
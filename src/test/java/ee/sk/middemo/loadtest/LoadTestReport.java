@@ -0,0 +1,148 @@
+package ee.sk.middemo.loadtest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ee.sk.middemo.loadtest.LoadTestStatistics.EndpointStatistics;
+import org.HdrHistogram.Histogram;
+
+/**
+ * JSON report of one load test run, comparable with the report of an earlier run.
+ */
+public class LoadTestReport {
+
+    private static final String[] COMPARED_METRICS = {"throughputPerSecond", "latencyMillis/p50", "latencyMillis/p99", "errorShare"};
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final Map<String, Object> report = new LinkedHashMap<>();
+
+    public LoadTestReport(LoadTestSettings settings, LoadTestStatistics statistics, ResourceSampler resources) {
+        double seconds = statistics.getRecordedSeconds();
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        statistics.getEndpoints().forEach((name, endpoint) -> endpoints.put(name, endpointReport(endpoint, seconds)));
+
+        report.put("startedAt", LocalDateTime.now().minusSeconds((long) seconds).toString());
+        report.put("recordedSeconds", seconds);
+        report.put("settings", settings.toMap());
+        report.put("endpoints", endpoints);
+        report.put("resources", resources.toMap());
+    }
+
+    public Path write(String directory) throws IOException {
+        Path file = Files.createDirectories(Paths.get(directory))
+            .resolve("loadtest-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        objectMapper.writeValue(file.toFile(), report);
+        return file;
+    }
+
+    public void print(PrintStream out) {
+        JsonNode current = objectMapper.valueToTree(report);
+
+        out.printf("%-28s %8s %10s %9s %9s %9s %9s %9s%n", "endpoint", "count", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        current.path("endpoints").fields().forEachRemaining(endpoint -> {
+            JsonNode value = endpoint.getValue();
+            JsonNode latency = value.path("latencyMillis");
+            out.printf("%-28s %8d %10.1f %8.1f%% %9.1f %9.1f %9.1f %9.1f%n", endpoint.getKey(),
+                value.path("count").asLong(), value.path("throughputPerSecond").asDouble(), value.path("errorShare").asDouble() * 100,
+                latency.path("p50").asDouble(), latency.path("p90").asDouble(), latency.path("p99").asDouble(), latency.path("max").asDouble());
+        });
+
+        out.println();
+        out.printf("%-36s %10s %10s%n", "resource", "mean", "max");
+        current.path("resources").fields().forEachRemaining(resource -> {
+            if (resource.getValue().isObject()) {
+                out.printf("%-36s %10d %10d%n", resource.getKey(), resource.getValue().path("mean").asLong(), resource.getValue().path("max").asLong());
+            }
+            else {
+                out.printf("%-36s %10s %10d%n", resource.getKey(), "", resource.getValue().asLong());
+            }
+        });
+    }
+
+    /**
+     * Prints the relative change of throughput, median and p99 latency and error share per endpoint.
+     */
+    public void printComparison(Path baselineFile, PrintStream out) throws IOException {
+        JsonNode baseline = objectMapper.readTree(baselineFile.toFile());
+        JsonNode current = objectMapper.valueToTree(report);
+
+        out.println();
+        out.println("Compared with " + baselineFile);
+        out.printf("%-28s %-20s %12s %12s %9s%n", "endpoint", "metric", "baseline", "current", "change");
+
+        current.path("endpoints").fields().forEachRemaining(endpoint -> {
+            JsonNode baselineEndpoint = baseline.path("endpoints").path(endpoint.getKey());
+
+            for (String metric : COMPARED_METRICS) {
+                double currentValue = endpoint.getValue().at("/" + metric).asDouble();
+                if (baselineEndpoint.isMissingNode()) {
+                    out.printf("%-28s %-20s %12s %12.2f %9s%n", endpoint.getKey(), metric, "-", currentValue, "new");
+                    continue;
+                }
+
+                double baselineValue = baselineEndpoint.at("/" + metric).asDouble();
+                String change = baselineValue == 0 ? "-" : String.format("%+.1f%%", (currentValue - baselineValue) / baselineValue * 100);
+                out.printf("%-28s %-20s %12.2f %12.2f %9s%n", endpoint.getKey(), metric, baselineValue, currentValue, change);
+            }
+        });
+    }
+
+    private static Map<String, Object> endpointReport(EndpointStatistics endpoint, double seconds) {
+        Histogram histogram = endpoint.getLatency();
+        long count = histogram.getTotalCount();
+
+        Map<String, Long> outcomes = new LinkedHashMap<>();
+        endpoint.getOutcomes().forEach((outcome, counter) -> outcomes.put(outcome, counter.sum()));
+        long ok = endpoint.getOutcomes().getOrDefault(LoadTestStatistics.OUTCOME_OK, new LongAdder()).sum();
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", histogram.getMean() / 1000);
+        latency.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+        latency.put("p90", histogram.getValueAtPercentile(90) / 1000.0);
+        latency.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+        latency.put("p999", histogram.getValueAtPercentile(99.9) / 1000.0);
+        latency.put("max", histogram.getMaxValue() / 1000.0);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("count", count);
+        report.put("throughputPerSecond", count / seconds);
+        report.put("errorShare", count == 0 ? 0 : (double) (count - ok) / count);
+        report.put("outcomes", outcomes);
+        report.put("latencyMillis", latency);
+        return report;
+    }
+}
@@ -0,0 +1,138 @@
+package ee.sk.middemo.loadtest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Load test parameters, read from {@code loadtest.*} system properties.
+ */
+public class LoadTestSettings {
+
+    private final int users = Integer.getInteger("loadtest.users", 100);
+    private final int rampUpSeconds = Integer.getInteger("loadtest.rampUpSeconds", 10);
+    private final int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 20);
+    private final int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 60);
+    private final double signingShare = Double.parseDouble(System.getProperty("loadtest.signingShare", "0.5"));
+    private final int documentSizeBytes = Integer.getInteger("loadtest.documentSizeBytes", 10240);
+    private final long thinkTimeMillis = Long.getLong("loadtest.thinkTimeMillis", 0);
+    private final long statusPollMillis = Long.getLong("loadtest.statusPollMillis", 1000);
+    private final int connectTimeoutMillis = Integer.getInteger("loadtest.connectTimeoutMillis", 5000);
+    private final int readTimeoutMillis = Integer.getInteger("loadtest.readTimeoutMillis", 180000);
+
+    private final long midResponseLatencyMedianMillis = Long.getLong("loadtest.mid.responseLatencyMedianMillis", 50);
+    private final long midSessionDurationMedianMillis = Long.getLong("loadtest.mid.sessionDurationMedianMillis", 3000);
+    private final double midUserCancelledRate = Double.parseDouble(System.getProperty("loadtest.mid.userCancelledRate", "0.02"));
+    private final double midTimeoutRate = Double.parseDouble(System.getProperty("loadtest.mid.timeoutRate", "0.01"));
+    private final double midPhoneAbsentRate = Double.parseDouble(System.getProperty("loadtest.mid.phoneAbsentRate", "0.01"));
+
+    private final String reportDirectory = System.getProperty("loadtest.reportDirectory", "target/loadtest");
+    private final String baseline = System.getProperty("loadtest.baseline", "");
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getRampUpSeconds() {
+        return rampUpSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public double getSigningShare() {
+        return signingShare;
+    }
+
+    public int getDocumentSizeBytes() {
+        return documentSizeBytes;
+    }
+
+    public long getThinkTimeMillis() {
+        return thinkTimeMillis;
+    }
+
+    public long getStatusPollMillis() {
+        return statusPollMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public long getMidResponseLatencyMedianMillis() {
+        return midResponseLatencyMedianMillis;
+    }
+
+    public long getMidSessionDurationMedianMillis() {
+        return midSessionDurationMedianMillis;
+    }
+
+    public double getMidUserCancelledRate() {
+        return midUserCancelledRate;
+    }
+
+    public double getMidTimeoutRate() {
+        return midTimeoutRate;
+    }
+
+    public double getMidPhoneAbsentRate() {
+        return midPhoneAbsentRate;
+    }
+
+    public String getReportDirectory() {
+        return reportDirectory;
+    }
+
+    public String getBaseline() {
+        return baseline;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("users", users);
+        settings.put("rampUpSeconds", rampUpSeconds);
+        settings.put("warmupSeconds", warmupSeconds);
+        settings.put("durationSeconds", durationSeconds);
+        settings.put("signingShare", signingShare);
+        settings.put("documentSizeBytes", documentSizeBytes);
+        settings.put("thinkTimeMillis", thinkTimeMillis);
+        settings.put("statusPollMillis", statusPollMillis);
+        settings.put("midResponseLatencyMedianMillis", midResponseLatencyMedianMillis);
+        settings.put("midSessionDurationMedianMillis", midSessionDurationMedianMillis);
+        settings.put("midUserCancelledRate", midUserCancelledRate);
+        settings.put("midTimeoutRate", midTimeoutRate);
+        settings.put("midPhoneAbsentRate", midPhoneAbsentRate);
+        return settings;
+    }
+}
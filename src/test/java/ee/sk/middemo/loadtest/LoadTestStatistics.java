@@ -0,0 +1,91 @@
+package ee.sk.middemo.loadtest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency histograms and outcome counts per endpoint (and per whole flow), recorded only
+ * between {@link #startRecording()} and {@link #stopRecording()} so that ramp-up and warm-up are excluded.
+ */
+public class LoadTestStatistics {
+
+    public static final String OUTCOME_OK = "OK";
+
+    private final Map<String, EndpointStatistics> endpoints = new ConcurrentSkipListMap<>();
+
+    private volatile boolean recording;
+    private volatile long recordingStartedNanos;
+    private volatile long recordingStoppedNanos;
+
+    public void startRecording() {
+        recordingStartedNanos = System.nanoTime();
+        recording = true;
+    }
+
+    public void stopRecording() {
+        recording = false;
+        recordingStoppedNanos = System.nanoTime();
+    }
+
+    public void record(String endpoint, long elapsedNanos, String outcome) {
+        if (recording) {
+            endpoints.computeIfAbsent(endpoint, name -> new EndpointStatistics()).record(elapsedNanos, outcome);
+        }
+    }
+
+    public double getRecordedSeconds() {
+        return (recordingStoppedNanos - recordingStartedNanos) / 1e9;
+    }
+
+    public Map<String, EndpointStatistics> getEndpoints() {
+        return endpoints;
+    }
+
+    public static class EndpointStatistics {
+
+        // microseconds, three significant digits, auto-resizing
+        private final Histogram latency = new ConcurrentHistogram(3);
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        private void record(long elapsedNanos, String outcome) {
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+            outcomes.computeIfAbsent(outcome, name -> new LongAdder()).increment();
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        public Map<String, LongAdder> getOutcomes() {
+            return outcomes;
+        }
+    }
+}
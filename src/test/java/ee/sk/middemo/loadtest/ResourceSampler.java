@@ -0,0 +1,137 @@
+package ee.sk.middemo.loadtest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Samples heap use and the saturation of the application's thread pools once a second.
+ */
+public class ResourceSampler {
+
+    private final ApplicationContext applicationContext;
+    private final Map<String, Sample> samples = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private long gcCountAtStart;
+    private long gcMillisAtStart;
+    private long gcCount;
+    private long gcMillis;
+
+    public ResourceSampler(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    public void start() {
+        gcCountAtStart = totalGcCount();
+        gcMillisAtStart = totalGcMillis();
+        scheduler.scheduleAtFixedRate(this::sample, 0, 1, TimeUnit.SECONDS);
+    }
+
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        gcCount = totalGcCount() - gcCountAtStart;
+        gcMillis = totalGcMillis() - gcMillisAtStart;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> resources = new LinkedHashMap<>();
+        samples.forEach((name, sample) -> resources.put(name, sample.toMap()));
+        resources.put("gc.count", gcCount);
+        resources.put("gc.millis", gcMillis);
+        return resources;
+    }
+
+    private void sample() {
+        record("heap.usedMb", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024));
+        record("threads.live", ManagementFactory.getThreadMXBean().getThreadCount());
+
+        MeterRegistry meterRegistry = applicationContext.getBean(MeterRegistry.class);
+        Gauge tomcatBusyThreads = meterRegistry.find("tomcat.threads.busy").gauge();
+        if (tomcatBusyThreads != null) {
+            record("tomcat.threads.busy", (long) tomcatBusyThreads.value());
+        }
+
+        applicationContext.getBeansOfType(ThreadPoolTaskExecutor.class).forEach((name, executor) -> {
+            record(name + ".active", executor.getActiveCount());
+            record(name + ".queued", executor.getThreadPoolExecutor().getQueue().size());
+        });
+
+        applicationContext.getBeansOfType(ThreadPoolTaskScheduler.class).forEach((name, scheduler) -> {
+            record(name + ".active", scheduler.getActiveCount());
+            record(name + ".queued", scheduler.getScheduledThreadPoolExecutor().getQueue().size());
+        });
+
+        applicationContext.getBeansOfType(ForkJoinPool.class).forEach((name, pool) -> {
+            record(name + ".active", pool.getActiveThreadCount());
+            record(name + ".queued", pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        });
+    }
+
+    private void record(String name, long value) {
+        samples.computeIfAbsent(name, key -> new Sample()).add(value);
+    }
+
+    private static long totalGcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long totalGcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static class Sample {
+        private long count;
+        private long sum;
+        private long max;
+
+        // only called from the single sampling thread
+        private void add(long value) {
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> sample = new LinkedHashMap<>();
+            sample.put("mean", count == 0 ? 0 : sum / count);
+            sample.put("max", max);
+            return sample;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ee.sk.middemo.loadtest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One simulated browser running the signing and authentication flows through {@code MobileIdController}
+ * back to back, each flow in a new HTTP session.
+ */
+public class VirtualUser implements Runnable {
+
+    public static final String SIGNING_FLOW = "flow signing";
+    public static final String AUTHENTICATION_FLOW = "flow authentication";
+
+    // rendered by both error.html and midOperationError.html
+    private static final String ERROR_PAGE_MARKER = "class=\"alert-heading text-center\">Error<";
+
+    private final String baseUrl;
+    private final LoadTestSettings settings;
+    private final LoadTestStatistics statistics;
+    private final long deadlineNanos;
+    private final String phoneNumber;
+    private final String nationalIdentityNumber;
+    private final byte[] document;
+
+    private String sessionCookie;
+
+    public VirtualUser(int index, String baseUrl, LoadTestSettings settings, LoadTestStatistics statistics, long deadlineNanos, byte[] document) {
+        this.baseUrl = baseUrl;
+        this.settings = settings;
+        this.statistics = statistics;
+        this.deadlineNanos = deadlineNanos;
+        this.document = document;
+        // distinct identities, so that per-person caches are exercised like with real users
+        this.phoneNumber = "+372" + (50000000 + index);
+        this.nationalIdentityNumber = String.format("6%010d", index);
+    }
+
+    @Override
+    public void run() {
+        while (System.nanoTime() < deadlineNanos && !Thread.currentThread().isInterrupted()) {
+            boolean signing = ThreadLocalRandom.current().nextDouble() < settings.getSigningShare();
+            sessionCookie = null;
+
+            long started = System.nanoTime();
+            String outcome = signing ? signingFlow() : authenticationFlow();
+            statistics.record(signing ? SIGNING_FLOW : AUTHENTICATION_FLOW, System.nanoTime() - started, outcome);
+
+            if (!pause(settings.getThinkTimeMillis())) {
+                return;
+            }
+        }
+    }
+
+    private String signingFlow() {
+        Response response = execute("GET /", "GET", "/", null, null);
+        if (!response.isOk()) {
+            return response.outcome;
+        }
+
+        String boundary = UUID.randomUUID().toString();
+        response = execute("POST /signatureRequest", "POST", "/signatureRequest",
+            "multipart/form-data; boundary=" + boundary, signatureRequestBody(boundary));
+        if (!response.isOk()) {
+            return response.outcome;
+        }
+
+        return execute("POST /sign", "POST", "/sign", null, null).outcome;
+    }
+
+    private String authenticationFlow() {
+        Response response = execute("GET /", "GET", "/", null, null);
+        if (!response.isOk()) {
+            return response.outcome;
+        }
+
+        String form = "phoneNumber=" + urlEncode(phoneNumber) + "&nationalIdentityNumber=" + urlEncode(nationalIdentityNumber);
+        response = execute("POST /authenticationRequest", "POST", "/authenticationRequest",
+            "application/x-www-form-urlencoded", form.getBytes(StandardCharsets.UTF_8));
+        if (!response.isOk()) {
+            return response.outcome;
+        }
+
+        // same as the polling script of authentication.html
+        do {
+            if (!pause(settings.getStatusPollMillis())) {
+                return "INTERRUPTED";
+            }
+            response = execute("GET /authenticationStatus", "GET", "/authenticationStatus", null, null);
+        }
+        while (response.isOk() && response.body.contains("RUNNING"));
+
+        if (!response.isOk()) {
+            return response.outcome;
+        }
+
+        return execute("POST /authenticate", "POST", "/authenticate", null, null).outcome;
+    }
+
+    private Response execute(String endpoint, String method, String path, String contentType, byte[] body) {
+        long started = System.nanoTime();
+        Response response;
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(settings.getConnectTimeoutMillis());
+            connection.setReadTimeout(settings.getReadTimeoutMillis());
+
+            if (sessionCookie != null) {
+                connection.setRequestProperty("Cookie", sessionCookie);
+            }
+
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+
+            int status = connection.getResponseCode();
+
+            String setCookie = connection.getHeaderField("Set-Cookie");
+            if (setCookie != null) {
+                sessionCookie = setCookie.split(";", 2)[0];
+            }
+
+            String responseBody = read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+
+            if (status != 200) {
+                response = new Response("HTTP_" + status, responseBody);
+            }
+            else if (responseBody.contains(ERROR_PAGE_MARKER)) {
+                response = new Response("ERROR_PAGE", responseBody);
+            }
+            else {
+                response = new Response(LoadTestStatistics.OUTCOME_OK, responseBody);
+            }
+        }
+        catch (IOException e) {
+            response = new Response(e.getClass().getSimpleName(), "");
+        }
+
+        statistics.record(endpoint, System.nanoTime() - started, response.outcome);
+        return response;
+    }
+
+    private byte[] signatureRequestBody(String boundary) {
+        try (ByteArrayOutputStream body = new ByteArrayOutputStream(document.length + 1024)) {
+            writeField(body, boundary, "phoneNumber", phoneNumber);
+            writeField(body, boundary, "nationalIdentityNumber", nationalIdentityNumber);
+            body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"document.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            body.write(document);
+            body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+            return body.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeField(OutputStream body, String boundary, String name, String value) throws IOException {
+        body.write(("--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+            + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String urlEncode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class Response {
+        private final String outcome;
+        private final String body;
+
+        private Response(String outcome, String body) {
+            this.outcome = outcome;
+            this.body = body;
+        }
+
+        private boolean isOk() {
+            return LoadTestStatistics.OUTCOME_OK.equals(outcome);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package ee.sk.middemo.mock;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ee.sk.mid.MidHashType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stand-in for the MID REST API (certificate, signature, authentication and session status endpoints)
+ * for offline load testing.
+ *
+ * <p>Signatures are made with the keys of a {@link TestPki}, so the application must trust its CA
+ * and sign with a profile that needs no OCSP or timestamp, e.g. B_BES. Responses are delayed
+ * on a scheduler instead of sleeping in the handler, so thousands of long-polling status requests
+ * do not need thousands of threads.
+ */
+public class MockMidServer implements Closeable {
+
+    public static final String CONTEXT_PATH = "/mid-api";
+
+    private static final Pattern SESSION_STATUS_PATH = Pattern.compile(CONTEXT_PATH + "/(signature|authentication)/session/([A-Za-z0-9-]+)");
+    private static final Pattern TIMEOUT_PARAMETER = Pattern.compile("(?:^|&)timeoutMs=(\\d+)");
+
+    static {
+        // the JDK server writes headers and body separately, which Nagle's algorithm delays on kept-alive connections
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    Logger logger = LoggerFactory.getLogger(MockMidServer.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, MockSession> sessions = new ConcurrentHashMap<>();
+
+    private final int port;
+    private final int threads;
+    private final LatencyDistribution responseLatency;
+    private final LatencyDistribution sessionDuration;
+    private final Map<String, Double> resultRates;
+    private final TestPki pki;
+    private final String userCertificate;
+
+    private HttpServer server;
+    private ExecutorService handlerExecutor;
+    private ScheduledExecutorService responseScheduler;
+
+    private MockMidServer(Builder builder) throws Exception {
+        this.port = builder.port;
+        this.threads = builder.threads;
+        this.responseLatency = builder.responseLatency;
+        this.sessionDuration = builder.sessionDuration;
+        this.resultRates = builder.resultRates;
+        this.pki = builder.pki;
+        this.userCertificate = builder.pki.getUserCertificateInBase64();
+    }
+
+    public MockMidServer start() throws IOException {
+        handlerExecutor = Executors.newFixedThreadPool(threads);
+        responseScheduler = Executors.newScheduledThreadPool(threads);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 4096);
+        server.setExecutor(handlerExecutor);
+        server.createContext(CONTEXT_PATH, this::handle);
+        server.start();
+
+        responseScheduler.scheduleWithFixedDelay(this::removeAbandonedSessions, 1, 1, TimeUnit.MINUTES);
+
+        logger.info("Mock MID server listening at {}", getHostUrl());
+        return this;
+    }
+
+    public String getHostUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + CONTEXT_PATH;
+    }
+
+    public TestPki getPki() {
+        return pki;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            handlerExecutor.shutdownNow();
+            responseScheduler.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+
+            if ("POST".equals(exchange.getRequestMethod())) {
+                JsonNode request = readRequest(exchange);
+
+                switch (path) {
+                    case CONTEXT_PATH + "/certificate":
+                        respondLater(exchange, 200, certificateResponse());
+                        return;
+                    case CONTEXT_PATH + "/signature":
+                    case CONTEXT_PATH + "/authentication":
+                        respondLater(exchange, 200, startSession(request));
+                        return;
+                    default:
+                        break;
+                }
+            }
+            else if ("GET".equals(exchange.getRequestMethod())) {
+                Matcher matcher = SESSION_STATUS_PATH.matcher(path);
+
+                if (matcher.matches()) {
+                    getSessionStatus(exchange, matcher.group(2), timeoutMillis(exchange.getRequestURI().getRawQuery()));
+                    return;
+                }
+            }
+
+            respond(exchange, 404, error("Not found"));
+        }
+        catch (Exception e) {
+            logger.warn("Mock MID server failed to handle {}", exchange.getRequestURI(), e);
+            respond(exchange, 400, error(e.getMessage()));
+        }
+    }
+
+    private Map<String, Object> certificateResponse() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("result", "OK");
+        response.put("cert", userCertificate);
+        return response;
+    }
+
+    private Map<String, Object> startSession(JsonNode request) throws Exception {
+        MidHashType hashType = MidHashType.valueOf(request.path("hashType").asText());
+        byte[] hash = Base64.getDecoder().decode(request.path("hash").asText());
+
+        String result = drawResult();
+        String signatureValue = "OK".equals(result) ? pki.signInBase64(hashType, hash) : null;
+        long completesAt = System.currentTimeMillis() + sessionDuration.nextMillis();
+
+        String sessionId = UUID.randomUUID().toString();
+        sessions.put(sessionId, new MockSession(completesAt, result, hashType, signatureValue));
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("sessionID", sessionId);
+        return response;
+    }
+
+    private void getSessionStatus(HttpExchange exchange, String sessionId, long timeoutMillis) throws Exception {
+        MockSession session = sessions.get(sessionId);
+
+        if (session == null) {
+            respondLater(exchange, 404, error("Session not found"));
+            return;
+        }
+
+        // long polling: answer as soon as the session completes, but no later than the requested timeout
+        long untilComplete = Math.max(0, session.completesAt - System.currentTimeMillis());
+        long delay = Math.min(untilComplete, timeoutMillis) + responseLatency.nextMillis();
+
+        responseScheduler.schedule(() -> {
+            try {
+                if (System.currentTimeMillis() < session.completesAt) {
+                    respond(exchange, 200, running());
+                }
+                else {
+                    // like MID, a completed session can be queried again until it times out
+                    respond(exchange, 200, complete(session));
+                }
+            }
+            catch (IOException e) {
+                logger.warn("Mock MID server failed to respond to {}", exchange.getRequestURI(), e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, Object> running() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("state", "RUNNING");
+        return response;
+    }
+
+    private Map<String, Object> complete(MockSession session) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("state", "COMPLETE");
+        response.put("result", session.result);
+
+        if (session.signatureValue != null) {
+            Map<String, Object> signature = new LinkedHashMap<>();
+            signature.put("value", session.signatureValue);
+            signature.put("algorithm", session.hashType.getHashTypeName() + "WithRSAEncryption");
+            response.put("signature", signature);
+            response.put("cert", userCertificate);
+        }
+        return response;
+    }
+
+    private String drawResult() {
+        double draw = ThreadLocalRandom.current().nextDouble();
+
+        for (Map.Entry<String, Double> resultRate : resultRates.entrySet()) {
+            draw -= resultRate.getValue();
+            if (draw < 0) {
+                return resultRate.getKey();
+            }
+        }
+        return "OK";
+    }
+
+    private void removeAbandonedSessions() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5);
+        sessions.values().removeIf(session -> session.completesAt < expiredBefore);
+    }
+
+    private JsonNode readRequest(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return objectMapper.readTree(in);
+        }
+    }
+
+    private void respondLater(HttpExchange exchange, int status, Map<String, Object> body) {
+        responseScheduler.schedule(() -> {
+            try {
+                respond(exchange, status, body);
+            }
+            catch (IOException e) {
+                logger.warn("Mock MID server failed to respond to {}", exchange.getRequestURI(), e);
+            }
+        }, responseLatency.nextMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void respond(HttpExchange exchange, int status, Map<String, Object> body) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(body);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", message);
+        return response;
+    }
+
+    private static long timeoutMillis(String query) {
+        Matcher matcher = TIMEOUT_PARAMETER.matcher(query == null ? "" : query);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Runs the server standalone and prints the properties that point the demo application to it.
+     * Settings are read from system properties, e.g.
+     * {@code -Dmid.mock.port=8089 -Dmid.mock.rate.USER_CANCELLED=0.05 -Dmid.mock.sessionDurationMedianMillis=3000}.
+     */
+    public static void main(String[] args) throws Exception {
+        Builder builder = newBuilder()
+            .withPort(Integer.getInteger("mid.mock.port", 8089))
+            .withThreads(Integer.getInteger("mid.mock.threads", 16))
+            .withResponseLatency(LatencyDistribution.logNormal(Long.getLong("mid.mock.responseLatencyMedianMillis", 50), 0.5))
+            .withSessionDuration(LatencyDistribution.logNormal(Long.getLong("mid.mock.sessionDurationMedianMillis", 3000), 0.5));
+
+        for (String result : new String[] {"USER_CANCELLED", "TIMEOUT", "PHONE_ABSENT"}) {
+            builder.withResultRate(result, Double.parseDouble(System.getProperty("mid.mock.rate." + result, "0")));
+        }
+
+        MockMidServer server = builder.build().start();
+
+        Path trustStore = Paths.get(System.getProperty("mid.mock.trustStore", "target/mock-mid-trusted-root-certs.p12")).toAbsolutePath();
+        server.getPki().writeTrustStore(trustStore, "changeit");
+
+        System.out.println("Start the demo application with:");
+        System.out.println("  --mid.client.applicationProviderHost=" + server.getHostUrl());
+        System.out.println("  --mid.truststore.trusted-root-certs.filename=" + trustStore.toUri());
+        System.out.println("  --mid.truststore.trusted-root-certs.password=changeit");
+        System.out.println("  --mid.sign.signatureProfile=B_BES");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    }
+
+    private static class MockSession {
+        private final long completesAt;
+        private final String result;
+        private final MidHashType hashType;
+        private final String signatureValue;
+
+        private MockSession(long completesAt, String result, MidHashType hashType, String signatureValue) {
+            this.completesAt = completesAt;
+            this.result = result;
+            this.hashType = hashType;
+            this.signatureValue = signatureValue;
+        }
+    }
+
+    public static class Builder {
+        private int port;
+        private int threads = 16;
+        private LatencyDistribution responseLatency = LatencyDistribution.fixed(0);
+        private LatencyDistribution sessionDuration = LatencyDistribution.fixed(0);
+        private Map<String, Double> resultRates = new LinkedHashMap<>();
+        private TestPki pki;
+
+        private Builder() {
+        }
+
+        /**
+         * 0 picks a free port, see {@link #getHostUrl()}.
+         */
+        public Builder withPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder withThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Delay of every HTTP response, on top of any long-polling wait.
+         */
+        public Builder withResponseLatency(LatencyDistribution responseLatency) {
+            this.responseLatency = responseLatency;
+            return this;
+        }
+
+        /**
+         * Time from starting a signature or authentication session until the user has answered on the phone.
+         */
+        public Builder withSessionDuration(LatencyDistribution sessionDuration) {
+            this.sessionDuration = sessionDuration;
+            return this;
+        }
+
+        /**
+         * Share of sessions (0..1) that end with the given MID result, e.g. USER_CANCELLED, TIMEOUT or PHONE_ABSENT.
+         * Sessions not drawn for any configured result end with OK.
+         */
+        public Builder withResultRate(String result, double rate) {
+            this.resultRates.put(result, rate);
+            return this;
+        }
+
+        public Builder withPki(TestPki pki) {
+            this.pki = pki;
+            return this;
+        }
+
+        public MockMidServer build() throws Exception {
+            if (pki == null) {
+                pki = new TestPki();
+            }
+            return new MockMidServer(this);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ee.sk.middemo.mock;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+
+import ee.sk.mid.MidHashType;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Throwaway CA and Mobile-ID user certificate so that benchmarks and the mock MID server
+ * never need the real test PKI.
+ */
+public class TestPki {
+
+    private final KeyPair caKeyPair;
+    private final X509Certificate caCertificate;
+    private final KeyPair userKeyPair;
+    private final X509Certificate userCertificate;
+
+    public TestPki() throws Exception {
+        this("MID demo test CA");
+    }
+
+    public TestPki(String caCommonName) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        caKeyPair = generator.generateKeyPair();
+        X500Name caName = new X500NameBuilder(BCStyle.INSTANCE)
+            .addRDN(BCStyle.CN, caCommonName)
+            .addRDN(BCStyle.C, "EE")
+            .build();
+        caCertificate = issue(caName, caKeyPair.getPublic(), caName, caKeyPair.getPrivate());
+
+        userKeyPair = generator.generateKeyPair();
+        X500Name userName = new X500NameBuilder(BCStyle.INSTANCE)
+            .addRDN(BCStyle.GIVENNAME, "MARY ANN")
+            .addRDN(BCStyle.SURNAME, "TESTNUMBER")
+            .addRDN(BCStyle.SERIALNUMBER, "PNOEE-60001019906")
+            .addRDN(BCStyle.C, "EE")
+            .addRDN(BCStyle.CN, "TESTNUMBER,MARY ANN,60001019906")
+            .build();
+        userCertificate = issue(userName, userKeyPair.getPublic(), caName, caKeyPair.getPrivate());
+    }
+
+    public X509Certificate getCaCertificate() {
+        return caCertificate;
+    }
+
+    public X509Certificate getUserCertificate() {
+        return userCertificate;
+    }
+
+    public String getUserCertificateInBase64() throws Exception {
+        return Base64.getEncoder().encodeToString(userCertificate.getEncoded());
+    }
+
+    /**
+     * Signs the hash the way the phone does: a raw RSA signature over DigestInfo.
+     */
+    public String signInBase64(MidHashType hashType, byte[] hash) throws Exception {
+        byte[] digestInfoPrefix = hashType.getDigestInfoPrefix();
+        byte[] digestInfo = new byte[digestInfoPrefix.length + hash.length];
+        System.arraycopy(digestInfoPrefix, 0, digestInfo, 0, digestInfoPrefix.length);
+        System.arraycopy(hash, 0, digestInfo, digestInfoPrefix.length, hash.length);
+
+        Signature signature = Signature.getInstance("NONEwithRSA");
+        signature.initSign(userKeyPair.getPrivate());
+        signature.update(digestInfo);
+        return Base64.getEncoder().encodeToString(signature.sign());
+    }
+
+    /**
+     * Writes the CA certificate to a PKCS12 trust store usable as {@code mid.truststore.trusted-root-certs}.
+     */
+    public void writeTrustStore(Path file, String password) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("midDemoTestCa", caCertificate);
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            trustStore.store(out, password.toCharArray());
+        }
+    }
+
+    private static X509Certificate issue(X500Name subject, PublicKey publicKey, X500Name issuer, PrivateKey issuerKey) throws Exception {
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            issuer,
+            BigInteger.valueOf(now.toEpochMilli()),
+            Date.from(now.minus(Duration.ofDays(1))),
+            Date.from(now.plus(Duration.ofDays(365))),
+            subject,
+            publicKey);
+
+        return new JcaX509CertificateConverter()
+            .getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey)));
+    }
+}
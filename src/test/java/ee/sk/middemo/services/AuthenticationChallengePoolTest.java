@@ -0,0 +1,121 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import ee.sk.middemo.services.AuthenticationChallengePool.Challenge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class AuthenticationChallengePoolTest {
+
+    private TaskScheduler scheduler;
+
+    private MeterRegistry meterRegistry;
+
+    private AuthenticationChallengePool challengePool;
+
+    @Before
+    public void setUp() {
+        scheduler = mock(TaskScheduler.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        challengePool = new AuthenticationChallengePool();
+        ReflectionTestUtils.setField(challengePool, "size", 10);
+        ReflectionTestUtils.setField(challengePool, "lowWaterMark", 3);
+        ReflectionTestUtils.setField(challengePool, "scheduler", scheduler);
+        ReflectionTestUtils.setField(challengePool, "meterRegistry", meterRegistry);
+        challengePool.registerMetrics();
+    }
+
+    @Test
+    public void fillsPoolUpToSize() {
+        challengePool.refill();
+        assertEquals(10, depth(), 0);
+
+        challengePool.take();
+        challengePool.refill();
+        assertEquals(10, depth(), 0);
+    }
+
+    @Test
+    public void generatesChallengeInlineWhenPoolIsEmpty() {
+        Challenge challenge = challengePool.take();
+
+        assertEquals(challenge.getAuthenticationHash().calculateVerificationCode(), challenge.getVerificationCode());
+        assertEquals(1, meterRegistry.counter("mid.auth.challenge.pool.misses").count(), 0);
+        verify(scheduler, never()).schedule(any(Runnable.class), any(Date.class));
+    }
+
+    @Test
+    public void refillsOnceBelowLowWaterMark() {
+        challengePool.refill();
+
+        for (int i = 0; i < 7; i++) {
+            challengePool.take();
+        }
+        verify(scheduler, never()).schedule(any(Runnable.class), any(Date.class));
+
+        challengePool.take();
+        challengePool.take();
+        assertEquals(1, depth(), 0);
+
+        ArgumentCaptor<Runnable> fill = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(1)).schedule(fill.capture(), any(Date.class));
+
+        fill.getValue().run();
+        assertEquals(10, depth(), 0);
+        assertEquals(0, meterRegistry.counter("mid.auth.challenge.pool.misses").count(), 0);
+    }
+
+    @Test
+    public void handsOutEveryChallengeOnce() {
+        challengePool.refill();
+        Set<String> hashes = new HashSet<>();
+
+        for (int i = 0; i < 10; i++) {
+            hashes.add(challengePool.take().getAuthenticationHash().getHashInBase64());
+        }
+
+        assertEquals(10, hashes.size());
+    }
+
+    private double depth() {
+        return meterRegistry.get("mid.auth.challenge.pool.depth").gauge().value();
+    }
+}
@@ -0,0 +1,135 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.KeyStore;
+
+import ee.sk.mid.MidAuthentication;
+import ee.sk.mid.MidAuthenticationHashToSign;
+import ee.sk.mid.MidAuthenticationResult;
+import ee.sk.middemo.mock.TestPki;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CachingResponseValidatorTest {
+
+    private TestPki pki;
+
+    private IssuerIndexedResponseValidator trustValidator;
+
+    @Before
+    public void setUp() throws Exception {
+        pki = new TestPki();
+
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca", pki.getCaCertificate());
+        trustValidator = spy(new IssuerIndexedResponseValidator(trustStore));
+    }
+
+    @Test
+    public void verifiesTrustOfReturningCertificateOnce() throws Exception {
+        CachingResponseValidator validator = new CachingResponseValidator(trustValidator, verifiedCertificates(3600));
+
+        MidAuthenticationResult first = validator.validate(authentication());
+        MidAuthenticationResult returning = validator.validate(authentication());
+
+        assertTrue(first.isValid());
+        assertTrue(returning.isValid());
+        assertEquals(first.getAuthenticationIdentity().getIdentityCode(), returning.getAuthenticationIdentity().getIdentityCode());
+        verify(trustValidator, times(1)).validate(any());
+    }
+
+    @Test
+    public void checksSignatureOfEveryAuthentication() throws Exception {
+        CachingResponseValidator validator = new CachingResponseValidator(trustValidator, verifiedCertificates(3600));
+        validator.validate(authentication());
+
+        MidAuthenticationHashToSign otherHash = MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+        MidAuthentication forged = MidAuthentication.newBuilder()
+            .withResult("OK")
+            .withSignatureValueInBase64(pki.signInBase64(otherHash.getHashType(), otherHash.getHash()))
+            .withAlgorithmName("SHA256WithRSAEncryption")
+            .withCertificate(pki.getUserCertificate())
+            .withSignedHashInBase64(MidAuthenticationHashToSign.generateRandomHashOfDefaultType().getHashInBase64())
+            .withHashType(otherHash.getHashType())
+            .build();
+
+        assertFalse(validator.validate(forged).isValid());
+        verify(trustValidator, times(2)).validate(any());
+    }
+
+    @Test
+    public void forgetsCertificatesAfterFreshnessWindow() throws Exception {
+        VerifiedCertificateCache verifiedCertificates = verifiedCertificates(0);
+        CachingResponseValidator validator = new CachingResponseValidator(trustValidator, verifiedCertificates);
+
+        validator.validate(authentication());
+
+        assertNull(verifiedCertificates.getIdentity(pki.getUserCertificate()));
+    }
+
+    @Test
+    public void forgetsCertificatesOnTrustStoreReload() throws Exception {
+        VerifiedCertificateCache verifiedCertificates = verifiedCertificates(3600);
+        new CachingResponseValidator(trustValidator, verifiedCertificates).validate(authentication());
+        assertNotNull(verifiedCertificates.getIdentity(pki.getUserCertificate()));
+
+        verifiedCertificates.invalidateAll();
+
+        assertNull(verifiedCertificates.getIdentity(pki.getUserCertificate()));
+    }
+
+    private MidAuthentication authentication() throws Exception {
+        MidAuthenticationHashToSign hashToSign = MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+        return MidAuthentication.newBuilder()
+            .withResult("OK")
+            .withSignatureValueInBase64(pki.signInBase64(hashToSign.getHashType(), hashToSign.getHash()))
+            .withAlgorithmName("SHA256WithRSAEncryption")
+            .withCertificate(pki.getUserCertificate())
+            .withSignedHashInBase64(hashToSign.getHashInBase64())
+            .withHashType(hashToSign.getHashType())
+            .build();
+    }
+
+    private static VerifiedCertificateCache verifiedCertificates(long revocationFreshnessSeconds) {
+        VerifiedCertificateCache verifiedCertificates = new VerifiedCertificateCache();
+        ReflectionTestUtils.setField(verifiedCertificates, "maximumSize", 1000L);
+        ReflectionTestUtils.setField(verifiedCertificates, "revocationFreshnessSeconds", revocationFreshnessSeconds);
+        ReflectionTestUtils.setField(verifiedCertificates, "meterRegistry", new SimpleMeterRegistry());
+        verifiedCertificates.initCache();
+        return verifiedCertificates;
+    }
+}
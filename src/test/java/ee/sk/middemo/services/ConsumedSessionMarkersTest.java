@@ -0,0 +1,94 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import ee.sk.middemo.exception.MidOperationException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConsumedSessionMarkersTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+
+    private ConsumedSessionMarkers markers;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.getRoot().toPath().resolve("consumed");
+        markers = markers();
+    }
+
+    @Test
+    public void consumesSessionOnce() {
+        assertFalse(markers.isConsumed("session-1"));
+
+        assertTrue(markers.consume("session-1"));
+        assertFalse(markers.consume("session-1"));
+        assertTrue(markers.isConsumed("session-1"));
+    }
+
+    @Test
+    public void seesSessionsConsumedByOtherNodes() throws Exception {
+        assertTrue(markers.consume("session-1"));
+
+        assertFalse(markers().consume("session-1"));
+    }
+
+    @Test
+    public void removesExpiredMarkersOnly() throws Exception {
+        markers.consume("session-1");
+        markers.consume("session-2");
+        Files.setLastModifiedTime(directory.resolve("session-1.consumed"), FileTime.fromMillis(System.currentTimeMillis() - 600_000));
+
+        markers.removeExpiredMarkers();
+
+        assertFalse(markers.isConsumed("session-1"));
+        assertTrue(markers.isConsumed("session-2"));
+    }
+
+    @Test(expected = MidOperationException.class)
+    public void rejectsSessionIdsOutsideDirectory() {
+        markers.consume("../session-1");
+    }
+
+    private ConsumedSessionMarkers markers() throws Exception {
+        ConsumedSessionMarkers markers = new ConsumedSessionMarkers();
+        ReflectionTestUtils.setField(markers, "directory", directory.toString());
+        ReflectionTestUtils.setField(markers, "ttlSeconds", 300L);
+        markers.createMarkerDirectory();
+        return markers;
+    }
+}
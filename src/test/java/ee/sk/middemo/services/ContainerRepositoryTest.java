@@ -0,0 +1,116 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class ContainerRepositoryTest {
+
+    private static final String OLDEST = "00000000-0000-0000-0000-000000000001";
+    private static final String OLDER = "00000000-0000-0000-0000-000000000002";
+    private static final String NEWEST = "00000000-0000-0000-0000-000000000003";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+
+    private ContainerRepository containerRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.getRoot().toPath().resolve("containers");
+        containerRepository = new ContainerRepository();
+        ReflectionTestUtils.setField(containerRepository, "directory", directory.toString());
+        ReflectionTestUtils.setField(containerRepository, "maxAgeSeconds", 600L);
+        ReflectionTestUtils.setField(containerRepository, "maxTotalSizeMb", 1L);
+        containerRepository.createContainerDirectory();
+    }
+
+    @Test
+    public void findsStoredContainer() throws Exception {
+        storeContainer(NEWEST, 10, 0);
+
+        assertNotNull(containerRepository.find(NEWEST));
+        assertNull(containerRepository.find(OLDEST));
+    }
+
+    @Test
+    public void refusesIdsThatAreNotContainerIds() throws Exception {
+        Files.write(temporaryFolder.getRoot().toPath().resolve("secret.asice"), new byte[10]);
+
+        assertNull(containerRepository.find("../secret"));
+        assertNull(containerRepository.find(null));
+    }
+
+    @Test
+    public void removesContainersOlderThanMaxAge() throws Exception {
+        storeContainer(OLDEST, 10, 700);
+        storeContainer(NEWEST, 10, 0);
+
+        containerRepository.removeExpiredContainers();
+
+        assertNull(containerRepository.find(OLDEST));
+        assertNotNull(containerRepository.find(NEWEST));
+    }
+
+    @Test
+    public void removesOldestContainersOverMaxTotalSize() throws Exception {
+        storeContainer(OLDEST, 400_000, 300);
+        storeContainer(OLDER, 400_000, 200);
+        storeContainer(NEWEST, 400_000, 100);
+
+        containerRepository.removeExpiredContainers();
+
+        assertNull(containerRepository.find(OLDEST));
+        assertNotNull(containerRepository.find(OLDER));
+        assertNotNull(containerRepository.find(NEWEST));
+    }
+
+    @Test
+    public void hidesContainersFromOtherUsers() throws Exception {
+        assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+    }
+
+    private void storeContainer(String containerId, int size, long ageSeconds) throws Exception {
+        Path file = directory.resolve(containerId + ".asice");
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - ageSeconds * 1000));
+    }
+}
@@ -0,0 +1,150 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.SigningSessionInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class FileSigningSessionStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+
+    private FileSigningSessionStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.getRoot().toPath().resolve("sessions");
+        store = new FileSigningSessionStore();
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "ttlSeconds", 300L);
+        store.createStoreDirectory();
+    }
+
+    @Test
+    public void loadsSavedSession() {
+        store.save(session("session-1"));
+
+        SigningSessionInfo loaded = store.load("session-1");
+
+        assertEquals("session-1", loaded.getSessionID());
+        assertEquals("1234", loaded.getVerificationCode());
+    }
+
+    @Test
+    public void rejectsRemovedSession() {
+        store.save(session("session-1"));
+        store.remove("session-1");
+
+        assertNotFound("session-1");
+    }
+
+    @Test
+    public void rejectsSessionIdsOutsideDirectory() {
+        try {
+            store.load("../session-1");
+            fail("Expected the session id to be rejected");
+        }
+        catch (MidOperationException e) {
+            assertEquals("Invalid signing session.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void removesExpiredSessionsOnly() throws Exception {
+        store.save(session("session-1"));
+        store.save(session("session-2"));
+        Files.setLastModifiedTime(directory.resolve("session-1.session"), FileTime.fromMillis(System.currentTimeMillis() - 600_000));
+
+        store.removeExpiredSessions();
+
+        assertNotFound("session-1");
+        assertEquals("session-2", store.load("session-2").getSessionID());
+    }
+
+    @Test
+    public void hidesSessionsFromOtherUsers() throws Exception {
+        assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        store.save(session("session-1"));
+
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.resolve("session-1.session"))));
+    }
+
+    @Test
+    public void refusesToDeserializeOtherClasses() throws Exception {
+        try (OutputStream out = Files.newOutputStream(directory.resolve("session-1.session"));
+             ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(new File("/etc/passwd"));
+        }
+
+        try {
+            store.load("session-1");
+            fail("Expected the session to be rejected");
+        }
+        catch (MidOperationException e) {
+            assertTrue(e.getCause() instanceof InvalidClassException);
+        }
+    }
+
+    private void assertNotFound(String sessionId) {
+        try {
+            store.load(sessionId);
+            fail("Expected the session to be gone");
+        }
+        catch (MidOperationException e) {
+            assertEquals("Signing session not found or expired.", e.getMessage());
+        }
+        assertFalse(Files.exists(directory.resolve(sessionId + ".session")));
+    }
+
+    private static SigningSessionInfo session(String sessionId) {
+        return SigningSessionInfo.newBuilder()
+            .withSessionID(sessionId)
+            .withVerificationCode("1234")
+            .build();
+    }
+}
@@ -0,0 +1,175 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.model.UserRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MidAdmissionControlTest {
+
+    private MeterRegistry meterRegistry;
+
+    private MidAdmissionControl admissionControl;
+
+    private AtomicInteger starts;
+
+    @Before
+    public void setUp() {
+        starts = new AtomicInteger();
+        admissionControl = admissionControl(2, 3600);
+    }
+
+    @Test
+    public void rejectsSecondStartForSamePersonWhileInFlight() {
+        CompletableFuture<String> first = admissionControl.start(key("60001019906"), this::pendingSession, session -> session);
+        CompletableFuture<String> second = admissionControl.start(key("60001019906"), this::pendingSession, session -> session);
+
+        assertFalse(first.isDone());
+        assertRejected(second, "already in progress");
+        assertEquals(1, starts.get());
+        assertEquals(1, meterRegistry.counter("mid.admission.duplicates").count(), 0);
+    }
+
+    @Test
+    public void startsSessionsOfDifferentPersons() {
+        admissionControl.start(key("60001019906"), this::pendingSession, session -> session);
+        CompletableFuture<String> other = admissionControl.start(key("50001018865"), this::pendingSession, session -> session);
+
+        assertFalse(other.isCompletedExceptionally());
+        assertEquals(2, starts.get());
+    }
+
+    @Test
+    public void allowsNewStartOnceSessionHasFinished() throws Exception {
+        String sessionId = admissionControl.start(key("60001019906"), () -> startedSession("session-1"), session -> session).get();
+
+        admissionControl.finished(sessionId);
+
+        assertEquals("session-2", admissionControl.start(key("60001019906"), () -> startedSession("session-2"), session -> session).get());
+    }
+
+    @Test
+    public void allowsNewStartAfterFailedStart() throws Exception {
+        CompletableFuture<String> failedStart = admissionControl.start(key("60001019906"), () -> {
+            throw new MidOperationException("MID is down");
+        }, session -> session);
+
+        assertRejected(failedStart, "MID is down");
+        assertEquals("session-1", admissionControl.start(key("60001019906"), () -> startedSession("session-1"), session -> session).get());
+        assertEquals(1, inFlightSessions());
+    }
+
+    @Test
+    public void rejectsStartsBeyondMaxConcurrentSessions() throws Exception {
+        admissionControl.start(key("60001019906"), () -> startedSession("session-1"), session -> session).get();
+        admissionControl.start(key("50001018865"), () -> startedSession("session-2"), session -> session).get();
+
+        assertRejected(admissionControl.start(key("60001019907"), this::pendingSession, session -> session), "Too many");
+        assertEquals(1, meterRegistry.counter("mid.admission.rejected").count(), 0);
+
+        admissionControl.finished("session-1");
+
+        assertEquals("session-3", admissionControl.start(key("60001019907"), () -> startedSession("session-3"), session -> session).get());
+    }
+
+    @Test
+    public void releasesExpiredSessions() throws Exception {
+        admissionControl = admissionControl(1, 0);
+        admissionControl.start(key("60001019906"), () -> startedSession("session-1"), session -> session).get();
+        Thread.sleep(10);
+
+        admissionControl.removeExpired();
+
+        assertEquals(0, inFlightSessions());
+        assertEquals("session-2", admissionControl.start(key("50001018865"), () -> startedSession("session-2"), session -> session).get());
+    }
+
+    @Test
+    public void replacesExpiredSessionOfSamePerson() throws Exception {
+        admissionControl = admissionControl(1, 0);
+        admissionControl.start(key("60001019906"), () -> startedSession("session-1"), session -> session).get();
+        Thread.sleep(10);
+
+        assertEquals("session-2", admissionControl.start(key("60001019906"), () -> startedSession("session-2"), session -> session).get());
+        assertEquals(1, inFlightSessions());
+    }
+
+    private MidAdmissionControl admissionControl(int maxConcurrentSessions, long inFlightTtlSeconds) {
+        meterRegistry = new SimpleMeterRegistry();
+        MidAdmissionControl admissionControl = new MidAdmissionControl();
+        ReflectionTestUtils.setField(admissionControl, "maxConcurrentSessions", maxConcurrentSessions);
+        ReflectionTestUtils.setField(admissionControl, "inFlightTtlSeconds", inFlightTtlSeconds);
+        ReflectionTestUtils.setField(admissionControl, "meterRegistry", meterRegistry);
+        admissionControl.init();
+        return admissionControl;
+    }
+
+    private CompletableFuture<String> pendingSession() {
+        starts.incrementAndGet();
+        return new CompletableFuture<>();
+    }
+
+    private CompletableFuture<String> startedSession(String sessionId) {
+        starts.incrementAndGet();
+        return CompletableFuture.completedFuture(sessionId);
+    }
+
+    private int inFlightSessions() {
+        return (int) meterRegistry.get("mid.admission.sessions").gauge().value();
+    }
+
+    private static String key(String nationalIdentityNumber) {
+        UserRequest userRequest = new UserRequest();
+        userRequest.setNationalIdentityNumber(nationalIdentityNumber);
+        userRequest.setPhoneNumber("+37200000766");
+        return MidAdmissionControl.key("authentication", userRequest);
+    }
+
+    private static void assertRejected(CompletableFuture<?> future, String message) {
+        try {
+            future.get();
+            fail("Expected the start to be rejected");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MidOperationException);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(message));
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import ee.sk.mid.MidClient;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.mock.TestPki;
+import ee.sk.middemo.model.UserRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MobileIdCertificateServiceImplTest {
+
+    private MidConnector connector;
+
+    private MidClient client;
+
+    private X509Certificate certificate;
+
+    private UserRequest userRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = mock(MidConnector.class);
+        client = mock(MidClient.class);
+        when(client.getMobileIdConnector()).thenReturn(connector);
+
+        certificate = new TestPki().getUserCertificate();
+        MidCertificateChoiceResponse response = new MidCertificateChoiceResponse();
+        when(connector.getCertificate(any())).thenReturn(response);
+        when(client.createMobileIdCertificate(response)).thenReturn(certificate);
+
+        userRequest = new UserRequest();
+        userRequest.setPhoneNumber("+37200000766");
+        userRequest.setNationalIdentityNumber("60001019906");
+    }
+
+    @Test
+    public void keepsCertificateForTtl() {
+        MobileIdCertificateServiceImpl certificateService = certificateService(3600, 60);
+
+        assertSame(certificate, certificateService.getCertificate(userRequest));
+        assertSame(certificate, certificateService.getCertificate(userRequest));
+
+        verify(connector, times(1)).getCertificate(any());
+    }
+
+    @Test
+    public void fetchesCertificateAgainAfterTtl() {
+        MobileIdCertificateServiceImpl certificateService = certificateService(0, 60);
+
+        certificateService.getCertificate(userRequest);
+        certificateService.getCertificate(userRequest);
+
+        verify(connector, times(2)).getCertificate(any());
+    }
+
+    @Test
+    public void doesNotKeepCertificatePastItsNotAfter() {
+        X509Certificate expired = mock(X509Certificate.class);
+        when(expired.getNotAfter()).thenReturn(new Date(System.currentTimeMillis() - 1000));
+        when(client.createMobileIdCertificate(any())).thenReturn(expired);
+        MobileIdCertificateServiceImpl certificateService = certificateService(3600, 60);
+
+        certificateService.getCertificate(userRequest);
+        certificateService.getCertificate(userRequest);
+
+        verify(connector, times(2)).getCertificate(any());
+    }
+
+    @Test
+    public void keepsNotMidClientAnswerForItsOwnTtl() {
+        when(connector.getCertificate(any())).thenThrow(new MidNotMidClientException());
+        MobileIdCertificateServiceImpl certificateService = certificateService(3600, 60);
+
+        assertRejected(certificateService);
+        assertRejected(certificateService);
+
+        verify(connector, times(1)).getCertificate(any());
+    }
+
+    @Test
+    public void asksAgainAfterNotMidClientTtl() {
+        when(connector.getCertificate(any())).thenThrow(new MidNotMidClientException());
+        MobileIdCertificateServiceImpl certificateService = certificateService(3600, 0);
+
+        assertRejected(certificateService);
+        assertRejected(certificateService);
+
+        verify(connector, times(2)).getCertificate(any());
+    }
+
+    @Test
+    public void doesNotKeepFailures() {
+        when(connector.getCertificate(any()))
+            .thenThrow(new MidInternalErrorException("MID is down"))
+            .thenReturn(new MidCertificateChoiceResponse());
+        when(client.createMobileIdCertificate(any())).thenReturn(certificate);
+        MobileIdCertificateServiceImpl certificateService = certificateService(3600, 60);
+
+        assertRejected(certificateService);
+
+        assertSame(certificate, certificateService.getCertificate(userRequest));
+    }
+
+    private void assertRejected(MobileIdCertificateServiceImpl certificateService) {
+        try {
+            certificateService.getCertificate(userRequest);
+            fail("Expected the certificate request to be rejected");
+        }
+        catch (MidOperationException expected) {
+        }
+    }
+
+    private MobileIdCertificateServiceImpl certificateService(long ttlSeconds, long notMidClientTtlSeconds) {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MobileIdCertificateServiceImpl certificateService = new MobileIdCertificateServiceImpl();
+        ReflectionTestUtils.setField(certificateService, "cacheMaximumSize", 100L);
+        ReflectionTestUtils.setField(certificateService, "cacheTtlSeconds", ttlSeconds);
+        ReflectionTestUtils.setField(certificateService, "cacheNotMidClientTtlSeconds", notMidClientTtlSeconds);
+        ReflectionTestUtils.setField(certificateService, "client", client);
+        ReflectionTestUtils.setField(certificateService, "metrics", new MidOperationMetrics(meterRegistry));
+        ReflectionTestUtils.setField(certificateService, "meterRegistry", meterRegistry);
+        certificateService.initCertificateCache();
+        return certificateService;
+    }
+}
@@ -0,0 +1,180 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ServerErrorException;
+
+import ee.sk.mid.MidClient;
+import ee.sk.mid.exception.MidDeliveryException;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidInvalidUserConfigurationException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.exception.MidPhoneNotAvailableException;
+import ee.sk.mid.exception.MidSessionTimeoutException;
+import ee.sk.mid.exception.MidUserCancellationException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MobileIdSessionStatusServiceImplTest {
+
+    private MidConnector connector;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidConnector.class);
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void completesWithFinalStatus() throws Exception {
+        MidSessionStatus complete = status("COMPLETE", "OK");
+        when(connector.getSessionStatus(any(), anyString()))
+            .thenReturn(status("RUNNING", null))
+            .thenReturn(complete);
+
+        assertSame(complete, statusService(connector, 60).fetchFinalSignatureSessionStatus("session-1").get(5, TimeUnit.SECONDS));
+        verify(connector, times(2)).getSessionStatus(any(), anyString());
+    }
+
+    @Test
+    public void mapsFinalResultsToMidExceptions() throws Exception {
+        assertFailure("TIMEOUT", MidSessionTimeoutException.class);
+        assertFailure("EXPIRED_TRANSACTION", MidSessionTimeoutException.class);
+        assertFailure("NOT_MID_CLIENT", MidNotMidClientException.class);
+        assertFailure("USER_CANCELLED", MidUserCancellationException.class);
+        assertFailure("SIGNATURE_HASH_MISMATCH", MidInvalidUserConfigurationException.class);
+        assertFailure("PHONE_ABSENT", MidPhoneNotAvailableException.class);
+        assertFailure("SIM_ERROR", MidDeliveryException.class);
+        assertFailure("DELIVERY_ERROR", MidDeliveryException.class);
+        assertFailure("UNKNOWN_RESULT", MidInternalErrorException.class);
+        assertFailure(null, MidInternalErrorException.class);
+    }
+
+    @Test
+    public void givesUpAtDeadline() throws Exception {
+        assertEquals(MidSessionTimeoutException.class,
+            failure(statusService(connector, 0).fetchFinalAuthenticationSessionStatus("session-1")).getClass());
+    }
+
+    @Test
+    public void repeatsStatusRequestAfterHostFailure() throws Exception {
+        MidSessionStatus complete = status("COMPLETE", "OK");
+        when(connector.getSessionStatus(any(), anyString()))
+            .thenThrow(new ServerErrorException(503))
+            .thenReturn(complete);
+
+        CompletableFuture<MidSessionStatus> finalStatus = statusService(resilient(connector), 60)
+            .fetchFinalAuthenticationSessionStatus("session-1");
+
+        assertSame(complete, finalStatus.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failsAfterMaxAttemptsInARow() throws Exception {
+        when(connector.getSessionStatus(any(), anyString())).thenThrow(new ServerErrorException(503));
+
+        Throwable failure = failure(statusService(resilient(connector), 60).fetchFinalAuthenticationSessionStatus("session-1"));
+
+        assertEquals(ServerErrorException.class, failure.getClass());
+        verify(connector, times(3)).getSessionStatus(any(), anyString());
+    }
+
+    private void assertFailure(String result, Class<? extends Throwable> expected) throws Exception {
+        MidConnector connector = mock(MidConnector.class);
+        when(connector.getSessionStatus(any(), anyString())).thenReturn(status("COMPLETE", result));
+
+        assertEquals(expected, failure(statusService(connector, 60).fetchFinalSignatureSessionStatus("session-1")).getClass());
+    }
+
+    private MobileIdSessionStatusServiceImpl statusService(MidConnector connector, long deadlineSeconds) {
+        BackoffSessionStatusPollingStrategy pollingStrategy = new BackoffSessionStatusPollingStrategy();
+        ReflectionTestUtils.setField(pollingStrategy, "requestTimeoutSeconds", 1);
+        ReflectionTestUtils.setField(pollingStrategy, "intervalMillis", 10L);
+        ReflectionTestUtils.setField(pollingStrategy, "maxIntervalMillis", 10L);
+        ReflectionTestUtils.setField(pollingStrategy, "backoffMultiplier", 1.0);
+        ReflectionTestUtils.setField(pollingStrategy, "deadlineSeconds", deadlineSeconds);
+
+        MidClient client = mock(MidClient.class);
+        when(client.getMobileIdConnector()).thenReturn(connector);
+
+        MobileIdSessionStatusServiceImpl statusService = new MobileIdSessionStatusServiceImpl();
+        ReflectionTestUtils.setField(statusService, "client", client);
+        ReflectionTestUtils.setField(statusService, "scheduler", scheduler);
+        ReflectionTestUtils.setField(statusService, "pollExecutor", new SyncTaskExecutor());
+        ReflectionTestUtils.setField(statusService, "pollingStrategy", pollingStrategy);
+        ReflectionTestUtils.setField(statusService, "metrics", new MidOperationMetrics(new SimpleMeterRegistry()));
+        return statusService;
+    }
+
+    private static ResilientMidConnector resilient(MidConnector connector) {
+        return new ResilientMidConnector(Collections.singletonMap("primary", connector), 5, 60000, 3, 0.2, 10);
+    }
+
+    private static MidSessionStatus status(String state, String result) {
+        MidSessionStatus sessionStatus = new MidSessionStatus();
+        sessionStatus.setState(state);
+        sessionStatus.setResult(result);
+        return sessionStatus;
+    }
+
+    private static Throwable failure(CompletableFuture<MidSessionStatus> finalStatus) throws Exception {
+        try {
+            finalStatus.get(5, TimeUnit.SECONDS);
+            fail("Expected the session to fail");
+            return null;
+        }
+        catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
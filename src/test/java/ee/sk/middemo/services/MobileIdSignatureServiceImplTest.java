@@ -0,0 +1,156 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import ee.sk.mid.MidClient;
+import ee.sk.mid.MidDisplayTextFormat;
+import ee.sk.mid.MidLanguage;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import ee.sk.middemo.exception.MidOperationException;
+import ee.sk.middemo.mock.TestPki;
+import ee.sk.middemo.model.SigningSessionInfo;
+import ee.sk.middemo.model.UserRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.digidoc4j.Configuration;
+import org.digidoc4j.DataFile;
+import org.digidoc4j.SignatureProfile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MobileIdSignatureServiceImplTest {
+
+    private MidConnector connector;
+
+    private ForkJoinPool batchPool;
+
+    private MobileIdSignatureServiceImpl signatureService;
+
+    private UserRequest userRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        TestPki pki = new TestPki();
+
+        connector = mock(MidConnector.class);
+        when(connector.sign(any())).thenReturn(new MidSignatureResponse("session-1"));
+        MidClient client = mock(MidClient.class);
+        when(client.getMobileIdConnector()).thenReturn(connector);
+
+        MobileIdSessionStatusService sessionStatusService = mock(MobileIdSessionStatusService.class);
+        when(sessionStatusService.fetchFinalSignatureSessionStatus(anyString())).thenReturn(new CompletableFuture<>());
+
+        MidAdmissionControl admissionControl = new MidAdmissionControl();
+        ReflectionTestUtils.setField(admissionControl, "maxConcurrentSessions", 10);
+        ReflectionTestUtils.setField(admissionControl, "inFlightTtlSeconds", 150L);
+        ReflectionTestUtils.setField(admissionControl, "meterRegistry", new SimpleMeterRegistry());
+        admissionControl.init();
+
+        batchPool = new ForkJoinPool(4);
+
+        signatureService = new MobileIdSignatureServiceImpl(request -> pki.getUserCertificate());
+        ReflectionTestUtils.setField(signatureService, "midSignDisplayText", "Sign document");
+        ReflectionTestUtils.setField(signatureService, "midSignDisplayTextFormat", MidDisplayTextFormat.GSM7);
+        ReflectionTestUtils.setField(signatureService, "midSignLanguage", MidLanguage.ENG);
+        ReflectionTestUtils.setField(signatureService, "signatureProfile", SignatureProfile.LT);
+        ReflectionTestUtils.setField(signatureService, "streamUploads", false);
+        ReflectionTestUtils.setField(signatureService, "batchMaxFiles", 3);
+        ReflectionTestUtils.setField(signatureService, "signingSessionTtlSeconds", 600L);
+        ReflectionTestUtils.setField(signatureService, "client", client);
+        ReflectionTestUtils.setField(signatureService, "sessionStatusService", sessionStatusService);
+        ReflectionTestUtils.setField(signatureService, "configuration", new Configuration(Configuration.Mode.TEST));
+        ReflectionTestUtils.setField(signatureService, "metrics", new MidOperationMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(signatureService, "admissionControl", admissionControl);
+        ReflectionTestUtils.setField(signatureService, "batchPool", batchPool);
+        ReflectionTestUtils.setField(signatureService, "preparationExecutor", new SyncTaskExecutor());
+        signatureService.initFinalSessionStatuses();
+
+        userRequest = new UserRequest();
+        userRequest.setPhoneNumber("+37200000766");
+        userRequest.setNationalIdentityNumber("60001019906");
+    }
+
+    @After
+    public void tearDown() {
+        batchPool.shutdown();
+    }
+
+    @Test
+    public void signsAllDocumentsOfBatchInOneContainer() {
+        userRequest.setFiles(Arrays.asList(document("contract.txt"), document("annex-1.txt"), document("annex-2.txt")));
+
+        SigningSessionInfo signingSessionInfo = signatureService.sendBatchSignatureRequest(userRequest);
+
+        List<String> names = signingSessionInfo.getContainer().getDataFiles().stream()
+            .map(DataFile::getName)
+            .collect(Collectors.toList());
+        assertEquals(Arrays.asList("contract.txt", "annex-1.txt", "annex-2.txt"), names);
+        assertEquals("session-1", signingSessionInfo.getSessionID());
+        verify(connector, times(1)).sign(any());
+    }
+
+    @Test
+    public void rejectsBatchOverMaxFiles() {
+        userRequest.setFiles(Arrays.asList(document("1.txt"), document("2.txt"), document("3.txt"), document("4.txt")));
+
+        assertTooManyDocuments();
+        // a rejected batch leaves no session in flight for the person
+        assertTooManyDocuments();
+
+        verify(connector, never()).sign(any());
+    }
+
+    private void assertTooManyDocuments() {
+        try {
+            signatureService.sendBatchSignatureRequest(userRequest);
+            fail("Expected the batch to be rejected");
+        }
+        catch (MidOperationException e) {
+            assertEquals("At most 3 documents can be signed at once.", e.getMessage());
+        }
+    }
+
+    private static MockMultipartFile document(String name) {
+        return new MockMultipartFile("files", name, "text/plain", ("content of " + name).getBytes());
+    }
+}
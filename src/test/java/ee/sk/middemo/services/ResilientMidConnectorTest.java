@@ -0,0 +1,294 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.ConnectException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServerErrorException;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResilientMidConnectorTest {
+
+    private MidConnector primary;
+
+    private MidConnector secondary;
+
+    private MeterRegistry meterRegistry;
+
+    @Before
+    public void setUp() {
+        primary = mock(MidConnector.class);
+        secondary = mock(MidConnector.class);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void repeatsCertificateRequestOnAnotherHost() {
+        MidCertificateChoiceResponse certificate = new MidCertificateChoiceResponse();
+        when(primary.getCertificate(any())).thenThrow(new ServerErrorException(503));
+        when(secondary.getCertificate(any())).thenReturn(certificate);
+
+        assertSame(certificate, connector(primary, secondary, 5, 60000).getCertificate(null));
+        assertEquals(1, meterRegistry.counter("mid.client.retries").count(), 0);
+    }
+
+    @Test
+    public void repeatsCertificateRequestOnSameHostAfterBackoff() {
+        MidCertificateChoiceResponse certificate = new MidCertificateChoiceResponse();
+        when(primary.getCertificate(any()))
+            .thenThrow(new ServerErrorException(503))
+            .thenReturn(certificate);
+
+        assertSame(certificate, connector(primary, null, 5, 60000).getCertificate(null));
+        verify(primary, times(2)).getCertificate(any());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        when(primary.getCertificate(any())).thenThrow(new ServerErrorException(503));
+        when(secondary.getCertificate(any())).thenThrow(new ServerErrorException(503));
+
+        failingCertificateRequest(connector(primary, secondary, 5, 60000), ServerErrorException.class);
+
+        verify(primary, times(2)).getCertificate(any());
+        verify(secondary, times(1)).getCertificate(any());
+    }
+
+    @Test
+    public void doesNotRepeatAuthenticationThatMayHaveReachedMid() {
+        when(primary.authenticate(any())).thenThrow(new ServerErrorException(503));
+
+        try {
+            connector(primary, secondary, 5, 60000).authenticate(null);
+            fail("Expected the failure of the first host");
+        }
+        catch (ServerErrorException e) {
+            verify(secondary, never()).authenticate(any());
+        }
+    }
+
+    @Test
+    public void movesAuthenticationToAnotherHostWhenNotSent() {
+        when(primary.authenticate(any())).thenThrow(new ProcessingException(new ConnectException("Connection refused")));
+        when(secondary.authenticate(any())).thenReturn(new MidAuthenticationResponse("session-1"));
+
+        assertEquals("session-1", connector(primary, secondary, 5, 60000).authenticate(null).getSessionID());
+    }
+
+    @Test
+    public void doesNotRepeatAuthenticationOnSameHost() {
+        when(primary.authenticate(any())).thenThrow(new ProcessingException(new ConnectException("Connection refused")));
+
+        try {
+            connector(primary, null, 5, 60000).authenticate(null);
+            fail("Expected the failure of the only host");
+        }
+        catch (ProcessingException e) {
+            verify(primary, times(1)).authenticate(any());
+        }
+    }
+
+    @Test
+    public void sendsStatusRequestsToHostThatStartedSession() {
+        when(primary.authenticate(any())).thenThrow(new ProcessingException(new ConnectException("Connection refused")));
+        when(secondary.authenticate(any())).thenReturn(new MidAuthenticationResponse("session-1"));
+        when(secondary.getSessionStatus(any(), anyString())).thenReturn(new MidSessionStatus());
+        ResilientMidConnector connector = connector(primary, secondary, 5, 60000);
+
+        connector.authenticate(null);
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("session-1"));
+
+        verify(secondary).getSessionStatus(any(), anyString());
+        verify(primary, never()).getSessionStatus(any(), anyString());
+    }
+
+    @Test
+    public void repeatsStatusRequestOnHostThatStartedSession() {
+        MidSessionStatus sessionStatus = new MidSessionStatus();
+        when(primary.authenticate(any())).thenReturn(new MidAuthenticationResponse("session-1"));
+        when(primary.getSessionStatus(any(), anyString()))
+            .thenThrow(new ProcessingException(new ConnectException("Connection refused")))
+            .thenReturn(sessionStatus);
+        ResilientMidConnector connector = connector(primary, secondary, 5, 60000);
+        connector.authenticate(null);
+
+        assertSame(sessionStatus, connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("session-1")));
+        verify(primary, times(2)).getSessionStatus(any(), anyString());
+        verify(secondary, never()).getSessionStatus(any(), anyString());
+    }
+
+    @Test
+    public void doesNotRepeatStatusRequestOnAnotherHost() {
+        when(primary.authenticate(any())).thenReturn(new MidAuthenticationResponse("session-1"));
+        when(primary.getSessionStatus(any(), anyString())).thenThrow(new ProcessingException(new ConnectException("Connection refused")));
+        ResilientMidConnector connector = connector(primary, secondary, 5, 60000);
+        connector.authenticate(null);
+
+        try {
+            connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("session-1"));
+            fail("Expected the failure of the host that started the session");
+        }
+        catch (ProcessingException e) {
+            verify(primary, times(3)).getSessionStatus(any(), anyString());
+            verify(secondary, never()).getSessionStatus(any(), anyString());
+        }
+    }
+
+    @Test
+    public void leavesRepeatOfSingleStatusRequestToCaller() {
+        when(primary.getSessionStatus(any(), anyString())).thenThrow(new ServerErrorException(503));
+
+        try {
+            connector(primary, null, 5, 60000).getSessionStatusOnce(new MidSessionStatusRequest("session-1"), "/path");
+            fail("Expected the failure of the host");
+        }
+        catch (ServerErrorException e) {
+            verify(primary, times(1)).getSessionStatus(any(), anyString());
+        }
+    }
+
+    @Test
+    public void doublesRandomRetryDelayBound() {
+        ResilientMidConnector connector = new ResilientMidConnector(hosts(primary, null), 5, 60000, 3, 0.2, 100);
+
+        for (int retry = 1; retry <= 3; retry++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = connector.getRetryDelayMillis(retry);
+                assertTrue(delay >= 0 && delay <= 100L << (retry - 1));
+            }
+        }
+    }
+
+    @Test
+    public void doesNotRepeatRequestsMidHasAnswered() {
+        when(primary.getCertificate(any())).thenThrow(new MidNotMidClientException());
+
+        try {
+            connector(primary, secondary, 1, 60000).getCertificate(null);
+            fail("Expected the answer of MID");
+        }
+        catch (MidNotMidClientException e) {
+            verify(secondary, never()).getCertificate(any());
+            assertEquals(0, circuitOpen("primary"), 0);
+        }
+    }
+
+    @Test
+    public void cutsOffHostAfterConsecutiveFailures() {
+        when(primary.getCertificate(any())).thenThrow(new ServerErrorException(503));
+        ResilientMidConnector connector = connector(primary, null, 4, 60000);
+
+        failingCertificateRequest(connector, ServerErrorException.class);
+        failingCertificateRequest(connector, ServerErrorException.class);
+        failingCertificateRequest(connector, MidInternalErrorException.class);
+
+        // the second request is cut off after its first repeat
+        verify(primary, times(4)).getCertificate(any());
+        assertEquals(1, circuitOpen("primary"), 0);
+    }
+
+    @Test
+    public void closesCircuitWhenTrialRequestSucceeds() {
+        when(primary.getCertificate(any()))
+            .thenThrow(new ServerErrorException(503), new ServerErrorException(503), new ServerErrorException(503))
+            .thenReturn(new MidCertificateChoiceResponse());
+        ResilientMidConnector connector = connector(primary, null, 1, 0);
+
+        failingCertificateRequest(connector, ServerErrorException.class);
+        assertEquals(1, circuitOpen("primary"), 0);
+
+        connector.getCertificate(null);
+        assertEquals(0, circuitOpen("primary"), 0);
+    }
+
+    @Test
+    public void reopensCircuitWhenTrialRequestFails() throws Exception {
+        when(primary.getCertificate(any())).thenThrow(new ServerErrorException(503));
+        ResilientMidConnector connector = connector(primary, null, 3, 50);
+
+        // three attempts of one request open the circuit
+        failingCertificateRequest(connector, ServerErrorException.class);
+        Thread.sleep(60);
+
+        // a single failed trial is enough to cut the host off again, also for its repeat
+        failingCertificateRequest(connector, ServerErrorException.class);
+        failingCertificateRequest(connector, MidInternalErrorException.class);
+
+        verify(primary, times(4)).getCertificate(any());
+    }
+
+    private ResilientMidConnector connector(MidConnector primary, MidConnector secondary, int failureThreshold, long openMillis) {
+        ResilientMidConnector connector = new ResilientMidConnector(hosts(primary, secondary), failureThreshold, openMillis, 3, 0.2, 0);
+        connector.bindTo(meterRegistry);
+        return connector;
+    }
+
+    private static Map<String, MidConnector> hosts(MidConnector primary, MidConnector secondary) {
+        Map<String, MidConnector> connectors = new LinkedHashMap<>();
+        connectors.put("primary", primary);
+        if (secondary != null) {
+            connectors.put("secondary", secondary);
+        }
+        return connectors;
+    }
+
+    private double circuitOpen(String host) {
+        return meterRegistry.get("mid.client.circuit.open").tag("host", host).gauge().value();
+    }
+
+    private static void failingCertificateRequest(ResilientMidConnector connector, Class<? extends RuntimeException> expected) {
+        try {
+            connector.getCertificate(null);
+            fail("Expected " + expected.getSimpleName());
+        }
+        catch (RuntimeException e) {
+            assertEquals(expected, e.getClass());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import ee.sk.mid.MidAuthenticationHashToSign;
+import ee.sk.middemo.model.AuthenticationSessionInfo;
+import ee.sk.middemo.model.UserMidSession;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SessionTokenCodecTest {
+
+    @Test
+    public void decodesEncodedSession() {
+        UserMidSession session = session();
+
+        UserMidSession decoded = codec("secret", 300).decode(codec("secret", 300).encode(session));
+
+        AuthenticationSessionInfo authenticationSessionInfo = decoded.getAuthenticationSessionInfo();
+        assertEquals("signing-1", decoded.getSigningSessionId());
+        assertEquals("container-1", decoded.getContainerId());
+        assertEquals("authentication-1", authenticationSessionInfo.getSessionID());
+        assertEquals("1234", authenticationSessionInfo.getVerificationCode());
+        assertEquals(session.getAuthenticationSessionInfo().getAuthenticationHash().getHashType(),
+            authenticationSessionInfo.getAuthenticationHash().getHashType());
+        assertArrayEquals(session.getAuthenticationSessionInfo().getAuthenticationHash().getHash(),
+            authenticationSessionInfo.getAuthenticationHash().getHash());
+    }
+
+    @Test
+    public void decodesEmptySession() {
+        SessionTokenCodec codec = codec("secret", 300);
+
+        UserMidSession decoded = codec.decode(codec.encode(new UserMidSession()));
+
+        assertNull(decoded.getSigningSessionId());
+        assertNull(decoded.getAuthenticationSessionInfo());
+        assertNull(decoded.getContainerId());
+    }
+
+    @Test
+    public void rejectsTamperedPayload() {
+        SessionTokenCodec codec = codec("secret", 300);
+        String token = codec.encode(session());
+
+        char[] tampered = token.toCharArray();
+        tampered[10] = tampered[10] == 'A' ? 'B' : 'A';
+
+        assertNull(codec.decode(new String(tampered)));
+    }
+
+    @Test
+    public void rejectsTokenSignedWithAnotherSecret() {
+        assertNull(codec("secret", 300).decode(codec("other secret", 300).encode(session())));
+    }
+
+    @Test
+    public void rejectsExpiredToken() {
+        SessionTokenCodec codec = codec("secret", -1);
+
+        assertNull(codec.decode(codec.encode(session())));
+    }
+
+    @Test
+    public void rejectsMalformedTokens() {
+        SessionTokenCodec codec = codec("secret", 300);
+
+        assertNull(codec.decode(null));
+        assertNull(codec.decode("no-separator"));
+        assertNull(codec.decode("not base64!.signature"));
+        assertNull(codec.decode("."));
+    }
+
+    private static SessionTokenCodec codec(String secret, long ttlSeconds) {
+        SessionTokenCodec codec = new SessionTokenCodec();
+        ReflectionTestUtils.setField(codec, "secret", secret);
+        ReflectionTestUtils.setField(codec, "ttlSeconds", ttlSeconds);
+        codec.initKey();
+        return codec;
+    }
+
+    private static UserMidSession session() {
+        UserMidSession session = new UserMidSession();
+        session.setSigningSessionId("signing-1");
+        session.setContainerId("container-1");
+        session.setAuthenticationSessionInfo(AuthenticationSessionInfo.newBuilder()
+            .withSessionID("authentication-1")
+            .withVerificationCode("1234")
+            .withAuthenticationHash(MidAuthenticationHashToSign.generateRandomHashOfDefaultType())
+            .build());
+        return session;
+    }
+}
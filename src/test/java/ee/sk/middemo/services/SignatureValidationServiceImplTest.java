@@ -0,0 +1,121 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.digidoc4j.Signature;
+import org.digidoc4j.SignatureValidationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SignatureValidationServiceImplTest {
+
+    private Signature signature;
+
+    private SignatureValidationResult validationResult;
+
+    @Before
+    public void setUp() {
+        signature = mock(Signature.class);
+        validationResult = mock(SignatureValidationResult.class);
+        when(signature.getAdESSignature()).thenReturn("signature".getBytes());
+        when(signature.validateSignature()).thenReturn(validationResult);
+        when(validationResult.isValid()).thenReturn(true);
+    }
+
+    @Test
+    public void keepsValidationResultByDigest() throws Exception {
+        SignatureValidationServiceImpl validationService = validationService(new SyncTaskExecutor());
+
+        String signatureDigest = validationService.validateInBackground(signature);
+
+        assertTrue(validationService.getValidationResult(signatureDigest).get());
+        assertNull(validationService.getValidationResult("unknown"));
+    }
+
+    @Test
+    public void validatesSignatureOnceWhileInProgress() {
+        List<Runnable> queued = new ArrayList<>();
+        SignatureValidationServiceImpl validationService = validationService(queued::add);
+
+        String signatureDigest = validationService.validateInBackground(signature);
+        assertEquals(signatureDigest, validationService.validateInBackground(signature));
+
+        assertEquals(1, queued.size());
+        queued.get(0).run();
+        verify(signature, times(1)).validateSignature();
+    }
+
+    @Test
+    public void forgetsFailedValidation() throws Exception {
+        when(signature.validateSignature())
+            .thenThrow(new IllegalStateException("OCSP is down"))
+            .thenReturn(validationResult);
+        SignatureValidationServiceImpl validationService = validationService(new SyncTaskExecutor());
+
+        String signatureDigest = validationService.validateInBackground(signature);
+        assertNull(validationService.getValidationResult(signatureDigest));
+
+        validationService.validateInBackground(signature);
+        assertTrue(validationService.getValidationResult(signatureDigest).get());
+    }
+
+    @Test
+    public void leavesSignatureWithoutResultWhenQueueIsFull() {
+        SignatureValidationServiceImpl validationService = validationService(task -> {
+            throw new TaskRejectedException("Queue is full");
+        });
+
+        String signatureDigest = validationService.validateInBackground(signature);
+
+        assertNull(validationService.getValidationResult(signatureDigest));
+    }
+
+    private static SignatureValidationServiceImpl validationService(TaskExecutor validationExecutor) {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SignatureValidationServiceImpl validationService = new SignatureValidationServiceImpl();
+        ReflectionTestUtils.setField(validationService, "cacheMaximumSize", 100L);
+        ReflectionTestUtils.setField(validationService, "cacheTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(validationService, "validationExecutor", validationExecutor);
+        ReflectionTestUtils.setField(validationService, "metrics", new MidOperationMetrics(meterRegistry));
+        ReflectionTestUtils.setField(validationService, "meterRegistry", meterRegistry);
+        validationService.initValidationResultCache();
+        return validationService;
+    }
+}
@@ -0,0 +1,123 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+import ee.sk.middemo.mock.TestPki;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TrustStoreManagerTest {
+
+    private static final String PASSWORD = "changeit";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+
+    private String location;
+
+    private TrustStoreManager trustStoreManager;
+
+    private List<KeyStore> reloaded;
+
+    @Before
+    public void setUp() throws Exception {
+        file = temporaryFolder.getRoot().toPath().resolve("trusted-root-certs.p12");
+        location = "file:" + file;
+        new TestPki("Old CA").writeTrustStore(file, PASSWORD);
+
+        trustStoreManager = new TrustStoreManager();
+        reloaded = new ArrayList<>();
+        trustStoreManager.onReload(location, PASSWORD, reloaded::add);
+    }
+
+    @Test
+    public void parsesUnchangedTrustStoreOnce() {
+        KeyStore trustStore = trustStoreManager.getTrustStore(location, PASSWORD);
+
+        assertSame(trustStore, trustStoreManager.getTrustStore(location, PASSWORD));
+    }
+
+    @Test
+    public void leavesListenersAloneWhileFileIsUnchanged() {
+        trustStoreManager.getTrustStore(location, PASSWORD);
+
+        trustStoreManager.reloadModified();
+
+        assertTrue(reloaded.isEmpty());
+    }
+
+    @Test
+    public void passesChangedTrustStoreToListeners() throws Exception {
+        trustStoreManager.getTrustStore(location, PASSWORD);
+        TestPki newPki = new TestPki("New CA");
+        replace(() -> newPki.writeTrustStore(file, PASSWORD));
+
+        trustStoreManager.reloadModified();
+
+        assertEquals(1, reloaded.size());
+        assertEquals(newPki.getCaCertificate(), reloaded.get(0).getCertificate("midDemoTestCa"));
+    }
+
+    @Test
+    public void keepsPreviousTrustStoreWhenChangedFileIsBroken() throws Exception {
+        KeyStore trustStore = trustStoreManager.getTrustStore(location, PASSWORD);
+        replace(() -> Files.write(file, "not a trust store".getBytes()));
+
+        trustStoreManager.reloadModified();
+
+        assertTrue(reloaded.isEmpty());
+
+        // a fixed file is picked up again
+        replace(() -> new TestPki("Fixed CA").writeTrustStore(file, PASSWORD));
+        trustStoreManager.reloadModified();
+
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.get(0) != trustStore);
+    }
+
+    private void replace(FileWriter writer) throws Exception {
+        FileTime previous = Files.getLastModifiedTime(file);
+        writer.write();
+        // file systems with a coarse timestamp would not notice a change within the same second
+        Files.setLastModifiedTime(file, FileTime.fromMillis(previous.toMillis() + 10_000));
+    }
+
+    private interface FileWriter {
+        void write() throws Exception;
+    }
+}
@@ -0,0 +1,122 @@
+package ee.sk.middemo.services;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class UploadSpoolerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path spoolDirectory;
+
+    private UploadSpooler uploadSpooler;
+
+    @Before
+    public void setUp() throws Exception {
+        spoolDirectory = temporaryFolder.getRoot().toPath().resolve("uploads");
+        uploadSpooler = new UploadSpooler();
+        ReflectionTestUtils.setField(uploadSpooler, "spoolDirectory", spoolDirectory.toString());
+        ReflectionTestUtils.setField(uploadSpooler, "ttlSeconds", 300L);
+        uploadSpooler.createSpoolDirectory();
+    }
+
+    @Test
+    public void copiesUploadUnderItsOriginalName() throws Exception {
+        byte[] content = "document to sign".getBytes();
+
+        uploadSpooler.spool(new MockMultipartFile("file", "contract.txt", "text/plain", content));
+
+        List<Path> uploads = uploads();
+        assertEquals(1, uploads.size());
+        assertEquals("contract.txt", uploads.get(0).getFileName().toString());
+        assertArrayEquals(content, Files.readAllBytes(uploads.get(0)));
+    }
+
+    @Test
+    public void keepsUploadsWithSameNameApart() throws Exception {
+        Path first = uploadSpooler.newUploadFile("contract.txt");
+        Path second = uploadSpooler.newUploadFile("contract.txt");
+
+        assertFalse(first.getParent().equals(second.getParent()));
+    }
+
+    @Test
+    public void dropsDirectoriesFromUploadedFileName() throws Exception {
+        assertEquals("passwd", uploadSpooler.newUploadFile("../../etc/passwd").getFileName().toString());
+        assertEquals("contract.txt", uploadSpooler.newUploadFile("C:\\Users\\me\\contract.txt").getFileName().toString());
+        assertEquals("document", uploadSpooler.newUploadFile(null).getFileName().toString());
+    }
+
+    @Test
+    public void hidesUploadsFromOtherUsers() throws Exception {
+        assumeTrue(spoolDirectory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        uploadSpooler.spool(new MockMultipartFile("file", "contract.txt", "text/plain", new byte[10]));
+
+        Path upload = uploads().get(0);
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(spoolDirectory)));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(upload.getParent())));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(upload)));
+    }
+
+    @Test
+    public void removesExpiredUploadsOnly() throws Exception {
+        Path expired = uploadSpooler.newUploadFile("expired.txt");
+        Files.write(expired, new byte[10]);
+        Files.setLastModifiedTime(expired.getParent(), FileTime.fromMillis(System.currentTimeMillis() - 600_000));
+        Path recent = uploadSpooler.newUploadFile("recent.txt");
+        Files.write(recent, new byte[10]);
+
+        uploadSpooler.removeExpiredUploads();
+
+        assertFalse(Files.exists(expired.getParent()));
+        assertTrue(Files.exists(recent));
+    }
+
+    private List<Path> uploads() throws Exception {
+        try (Stream<Path> files = Files.walk(spoolDirectory)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+}